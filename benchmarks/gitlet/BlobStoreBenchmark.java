@@ -0,0 +1,146 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static gitlet.Utils.*;
+
+/** Compares the blob store with the raw copies written by earlier
+ *  versions of gitlet.  Usage:
+ *
+ *      java gitlet.BlobStoreBenchmark [FILES [KILOBYTES [LEVEL]]]
+ *
+ *  generates FILES text files of about KILOBYTES each (default 200 files
+ *  of 64K), stores them both ways and reports the bytes on disk and the
+ *  throughput of writing every file back out, as checkout does.
+ *  @author KEVIN ZHU
+ */
+public class BlobStoreBenchmark {
+
+    /** Words from which the generated files are built. */
+    private static final String[] WORDS = {
+        "public", "private", "static", "void", "String", "return", "if",
+        "else", "for", "while", "new", "File", "commit", "blob", "branch",
+        "merge", "tracked", "=", "==", "(", ")", "{", "}", ";", "\n",
+    };
+
+    /** Number of timed checkout passes. */
+    private static final int PASSES = 5;
+
+    /** Runs the benchmark as described above. */
+    public static void main(String... args) throws IOException {
+        int files = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        int kilobytes = args.length > 1 ? Integer.parseInt(args[1]) : 64;
+        String level = args.length > 2 ? args[2] : "6";
+
+        File root = Files.createTempDirectory("gitlet-bench").toFile();
+        File work = join(root, "work");
+        File raw = join(root, "raw");
+        File packed = join(root, "packed");
+        work.mkdir();
+        raw.mkdir();
+        packed.mkdir();
+        File configFile = join(root, "config");
+        writeContents(configFile, Config.COMPRESSION_LEVEL + "=" + level + "\n");
+        ObjectStore objects = new ObjectStore(join(root, "commit"), packed,
+                                              join(root, "tree"), join(root, "pack"));
+        BlobStore store = new BlobStore(objects, new Config(configFile));
+
+        Random random = new Random(61);
+        List<String> ids = new ArrayList<>();
+        List<File> sources = new ArrayList<>();
+        long rawBytes = 0;
+        for (int i = 0; i < files; i += 1) {
+            File source = join(work, "file" + i + ".txt");
+            writeContents(source, generate(random, kilobytes * 1024));
+            sources.add(source);
+            ids.add(sha1(readContents(source)));
+            rawBytes += source.length();
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < files; i += 1) {
+            writeContents(join(raw, ids.get(i)),
+                          readContentsAsString(sources.get(i)));
+        }
+        double rawWrite = seconds(start);
+        start = System.nanoTime();
+        for (int i = 0; i < files; i += 1) {
+            store.write(ids.get(i), sources.get(i));
+        }
+        objects.batch().commit(false);
+        double storeWrite = seconds(start);
+
+        double rawCheckout = Double.MAX_VALUE;
+        double storeCheckout = Double.MAX_VALUE;
+        for (int pass = 0; pass < PASSES; pass += 1) {
+            start = System.nanoTime();
+            for (int i = 0; i < files; i += 1) {
+                writeContents(sources.get(i),
+                              readContentsAsString(join(raw, ids.get(i))));
+            }
+            rawCheckout = Math.min(rawCheckout, seconds(start));
+            start = System.nanoTime();
+            for (int i = 0; i < files; i += 1) {
+                store.copyTo(ids.get(i), sources.get(i));
+            }
+            storeCheckout = Math.min(storeCheckout, seconds(start));
+        }
+
+        double megabytes = rawBytes / (1024.0 * 1024.0);
+        System.out.printf("%d files, %.1f MB of contents, level %s%n",
+                          files, megabytes, level);
+        System.out.printf("%-12s %14s %12s %16s%n", "store", "bytes on disk",
+                          "write s", "checkout MB/s");
+        System.out.printf("%-12s %14d %12.3f %16.1f%n", "raw", size(raw),
+                          rawWrite, megabytes / rawCheckout);
+        System.out.printf("%-12s %14d %12.3f %16.1f%n", "blob store",
+                          size(packed), storeWrite, megabytes / storeCheckout);
+        delete(root);
+    }
+
+    /** Returns about SIZE bytes of program-like text drawn from RANDOM. */
+    private static String generate(Random random, int size) {
+        StringBuilder result = new StringBuilder(size + 16);
+        while (result.length() < size) {
+            result.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+            if (random.nextInt(8) == 0) {
+                result.append(random.nextInt(100000));
+            }
+        }
+        return result.toString();
+    }
+
+    /** Returns the seconds elapsed since the System.nanoTime() value
+     *  START. */
+    private static double seconds(long start) {
+        return (System.nanoTime() - start) / 1e9;
+    }
+
+    /** Returns the total length of the plain files under DIR. */
+    private static long size(File dir) {
+        long total = 0;
+        File[] children = dir.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                total += child.isDirectory() ? size(child) : child.length();
+            }
+        }
+        return total;
+    }
+
+    /** Deletes FILE and, if it is a directory, everything under it. */
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
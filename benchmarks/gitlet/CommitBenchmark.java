@@ -0,0 +1,97 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+
+import static gitlet.Utils.*;
+
+/** Measures the latency of add and commit with durable writes on and
+ *  off.  Usage:
+ *
+ *      java gitlet.CommitBenchmark [COMMITS [FILES]]
+ *
+ *  makes a repository in a temporary directory holding FILES files
+ *  (default 100), and then, with core.fsync set first to false and then
+ *  to true, makes COMMITS commits (default 50) that each change five of
+ *  them, reporting the median and worst times of the add and commit
+ *  commands, after as many unreported commits to warm up.  Each command
+ *  runs on a new Repository, as it would in its own process.
+ *  @author KEVIN ZHU
+ */
+public class CommitBenchmark {
+
+    /** Number of files changed by each commit. */
+    private static final int CHANGED = 5;
+
+    /** Runs the benchmark as described above. */
+    public static void main(String... args) throws IOException {
+        int commits = args.length > 0 ? Integer.parseInt(args[0]) : 50;
+        int files = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+
+        File root = Files.createTempDirectory("gitlet-bench").toFile();
+        System.setProperty("user.dir", root.getPath());
+        Random random = new Random(61);
+        run("init");
+        for (int i = 0; i < files; i += 1) {
+            writeContents(join(root, "f" + i + ".txt"), Long.toString(random.nextLong()));
+        }
+        run("add", ".");
+        run("commit", "files");
+
+        commit(root, random, commits, files, new double[commits], new double[commits]);
+        System.out.printf("%d commits of %d changed files, %d files tracked%n",
+                          commits, CHANGED, files);
+        System.out.printf("%-10s %12s %12s %12s %12s%n", "core.fsync",
+                          "add ms", "worst", "commit ms", "worst");
+        for (boolean durable : new boolean[] { false, true }) {
+            writeContents(join(root, ".gitlet", "config"),
+                          Config.FSYNC + "=" + durable + "\n");
+            double[] adds = new double[commits];
+            double[] commitTimes = new double[commits];
+            commit(root, random, commits, files, adds, commitTimes);
+            System.out.printf("%-10s %12.2f %12.2f %12.2f %12.2f%n", durable,
+                              median(adds), max(adds),
+                              median(commitTimes), max(commitTimes));
+        }
+    }
+
+    /** Makes COMMITS commits in the repository at ROOT, each changing
+     *  CHANGED of its FILES files at random using RANDOM, and records the
+     *  times of each add and commit in ADDS and COMMITTIMES. */
+    private static void commit(File root, Random random, int commits, int files,
+                               double[] adds, double[] commitTimes) {
+        for (int c = 0; c < commits; c += 1) {
+            String[] names = new String[CHANGED + 1];
+            names[0] = "add";
+            for (int k = 1; k <= CHANGED; k += 1) {
+                names[k] = "f" + random.nextInt(files) + ".txt";
+                writeContents(join(root, names[k]), Long.toString(random.nextLong()));
+            }
+            adds[c] = run(names);
+            commitTimes[c] = run("commit", "commit " + c);
+        }
+    }
+
+    /** Runs the gitlet command ARGS on a new Repository and returns the
+     *  time it took, in milliseconds. */
+    private static double run(String... args) {
+        long start = System.nanoTime();
+        Main.run(new Repository(), args);
+        return (System.nanoTime() - start) / 1e6;
+    }
+
+    /** Returns the median of TIMES. */
+    private static double median(double[] times) {
+        double[] sorted = times.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+
+    /** Returns the largest of TIMES. */
+    private static double max(double[] times) {
+        return Arrays.stream(times).max().orElse(0);
+    }
+}
@@ -0,0 +1,165 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static gitlet.Utils.*;
+
+/** Measures what delta compression in repack saves, and what it costs
+ *  readers.  Usage:
+ *
+ *      java gitlet.DeltaBenchmark [EDITS [LINES]]
+ *
+ *  builds a synthetic history of EDITS versions (default 1000) of one
+ *  text file of about LINES lines (default 2000), each version changing a
+ *  few lines of the one before.  It packs the history once without and
+ *  once with deltas, and reports the bytes on disk and the time taken to
+ *  read versions back through a fresh BlobStore.
+ *  @author KEVIN ZHU
+ */
+public class DeltaBenchmark {
+
+    /** Number of timed passes over each read pattern. */
+    private static final int PASSES = 3;
+
+    /** Runs the benchmark as described above. */
+    public static void main(String... args) throws IOException {
+        int edits = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int lines = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+
+        File root = Files.createTempDirectory("gitlet-bench").toFile();
+        File blobDir = join(root, "blob");
+        File packDir = join(root, "pack");
+        blobDir.mkdir();
+        packDir.mkdir();
+        Config config = new Config(join(root, "config"));
+        ObjectStore objects =
+            new ObjectStore(join(root, "commit"), blobDir, join(root, "tree"), packDir);
+        BlobStore blobs = new BlobStore(objects, config);
+
+        Random random = new Random(61);
+        List<String> text = new ArrayList<>();
+        for (int i = 0; i < lines; i += 1) {
+            text.add(line(random));
+        }
+        File work = join(root, "file.txt");
+        List<String> history = new ArrayList<>();
+        for (int i = 0; i < edits; i += 1) {
+            int changes = 1 + random.nextInt(3);
+            for (int k = 0; k < changes; k += 1) {
+                int at = random.nextInt(text.size());
+                switch (random.nextInt(4)) {
+                    case 0:
+                        text.add(at, line(random));
+                        break;
+                    case 1:
+                        text.remove(at);
+                        break;
+                    default:
+                        text.set(at, line(random));
+                        break;
+                }
+            }
+            writeContents(work, String.join("\n", text));
+            String id = sha1(readContents(work));
+            blobs.write(id, work);
+            history.add(id);
+        }
+        objects.batch().commit(false);
+        long loose = size(blobDir);
+
+        objects.repack(id -> null, false);
+        long whole = size(packDir);
+        double[] wholeTimes = readTimes(objects, config, history);
+
+        Map<String, String> bases =
+            BlobStore.chooseBases(Collections.singletonList(history));
+        objects.repack(id -> blobs.repackedForm(id, bases), false);
+        long deltified = size(packDir);
+        double[] deltaTimes = readTimes(objects, config, history);
+
+        System.out.printf("%d versions of a %d-line file, %d deltas "
+                          + "(chains of at most %d)%n", edits, lines,
+                          bases.size(), BlobStore.MAX_DEPTH);
+        System.out.printf("%-14s %14s %12s %16s %16s%n", "storage",
+                          "bytes on disk", "newest ms", "all, new-old ms",
+                          "all, random ms");
+        System.out.printf("%-14s %14d%n", "loose", loose);
+        System.out.printf("%-14s %14d %12.3f %16.1f %16.1f%n", "pack, whole",
+                          whole, wholeTimes[0], wholeTimes[1], wholeTimes[2]);
+        System.out.printf("%-14s %14d %12.3f %16.1f %16.1f%n", "pack, deltas",
+                          deltified, deltaTimes[0], deltaTimes[1],
+                          deltaTimes[2]);
+        delete(root);
+    }
+
+    /** Returns the best milliseconds, over PASSES fresh stores reading the
+     *  packed OBJECTS with CONFIG, to read the newest version in HISTORY,
+     *  every version from newest to oldest, and every version in a random
+     *  order. */
+    private static double[] readTimes(ObjectStore objects, Config config,
+                                      List<String> history) {
+        List<String> newestFirst = new ArrayList<>(history);
+        Collections.reverse(newestFirst);
+        List<String> shuffled = new ArrayList<>(history);
+        Collections.shuffle(shuffled, new Random(7));
+        double[] result = { Double.MAX_VALUE, Double.MAX_VALUE,
+                            Double.MAX_VALUE };
+        for (int pass = 0; pass < PASSES; pass += 1) {
+            List<List<String>> orders = new ArrayList<>();
+            orders.add(newestFirst.subList(0, 1));
+            orders.add(newestFirst);
+            orders.add(shuffled);
+            for (int i = 0; i < orders.size(); i += 1) {
+                BlobStore fresh = new BlobStore(objects, config);
+                long start = System.nanoTime();
+                for (String id : orders.get(i)) {
+                    fresh.readBytes(id);
+                }
+                result[i] = Math.min(result[i],
+                                     (System.nanoTime() - start) / 1e6);
+            }
+        }
+        return result;
+    }
+
+    /** Returns a random line of text drawn from RANDOM. */
+    private static String line(Random random) {
+        StringBuilder result = new StringBuilder();
+        int words = 3 + random.nextInt(8);
+        for (int i = 0; i < words; i += 1) {
+            result.append(Integer.toString(random.nextInt(1 << 20), 36))
+                .append(' ');
+        }
+        return result.toString();
+    }
+
+    /** Returns the total length of the plain files under DIR. */
+    private static long size(File dir) {
+        long total = 0;
+        File[] children = dir.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                total += child.isDirectory() ? size(child) : child.length();
+            }
+        }
+        return total;
+    }
+
+    /** Deletes FILE and, if it is a directory, everything under it. */
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,106 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/** Measures the diff engine on large files.  Usage:
+ *
+ *      java gitlet.DiffBenchmark [LINES]
+ *
+ *  generates a text file of LINES lines (default 100000) and times a
+ *  unified diff of it against versions with a few scattered edits, with
+ *  one line in ten edited, with a block of lines moved, and against an
+ *  unrelated file of the same size.
+ *  @author KEVIN ZHU
+ */
+public class DiffBenchmark {
+
+    /** Number of timed passes over each pair of files. */
+    private static final int PASSES = 5;
+
+    /** Runs the benchmark as described above. */
+    public static void main(String... args) throws IOException {
+        int lines = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        Random random = new Random(61);
+        List<String> base = new ArrayList<>();
+        for (int i = 0; i < lines; i += 1) {
+            base.add(line(random));
+        }
+
+        List<String> few = new ArrayList<>(base);
+        edit(few, 20, random);
+        List<String> many = new ArrayList<>(base);
+        edit(many, lines / 10, random);
+        List<String> moved = new ArrayList<>(base);
+        List<String> block = new ArrayList<>(moved.subList(lines / 4, lines / 2));
+        moved.subList(lines / 4, lines / 2).clear();
+        moved.addAll(block);
+        List<String> unrelated = new ArrayList<>();
+        for (int i = 0; i < lines; i += 1) {
+            unrelated.add(line(random));
+        }
+
+        byte[] original = join(base);
+        System.out.printf("%d-line files, best of %d passes%n", lines, PASSES);
+        System.out.printf("%-18s %12s %12s%n", "new version", "diff bytes", "ms");
+        report("20 edits", original, join(few));
+        report("1 line in 10", original, join(many));
+        report("block moved", original, join(moved));
+        report("unrelated", original, join(unrelated));
+    }
+
+    /** Prints the size of the diff from OLD to NEW and the best time taken
+     *  to compute it, labelled LABEL. */
+    private static void report(String label, byte[] old, byte[] now)
+        throws IOException {
+        double best = Double.MAX_VALUE;
+        int size = 0;
+        for (int pass = 0; pass < PASSES; pass += 1) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            long start = System.nanoTime();
+            Diff.unified("file.txt", old, "file.txt", now, out);
+            best = Math.min(best, (System.nanoTime() - start) / 1e6);
+            size = out.size();
+        }
+        System.out.printf("%-18s %12d %12.1f%n", label, size, best);
+    }
+
+    /** Makes COUNT random edits (insertions, deletions and replacements
+     *  of single lines) to TEXT, using RANDOM. */
+    private static void edit(List<String> text, int count, Random random) {
+        for (int k = 0; k < count; k += 1) {
+            int at = random.nextInt(text.size());
+            switch (random.nextInt(3)) {
+                case 0:
+                    text.add(at, line(random));
+                    break;
+                case 1:
+                    text.remove(at);
+                    break;
+                default:
+                    text.set(at, line(random));
+                    break;
+            }
+        }
+    }
+
+    /** Returns TEXT as the contents of a file, one line per element. */
+    private static byte[] join(List<String> text) {
+        return (String.join("\n", text) + "\n").getBytes(StandardCharsets.UTF_8);
+    }
+
+    /** Returns a random line of text drawn from RANDOM. */
+    private static String line(Random random) {
+        StringBuilder result = new StringBuilder();
+        int words = 3 + random.nextInt(8);
+        for (int i = 0; i < words; i += 1) {
+            result.append(Integer.toString(random.nextInt(1 << 20), 36))
+                .append(' ');
+        }
+        return result.toString();
+    }
+}
@@ -0,0 +1,265 @@
+package gitlet;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.Consumer;
+
+import static gitlet.Utils.*;
+
+/** Builds a large repository in the current directory, deterministically
+ *  from a seed, by driving Repository directly.  Usage:
+ *
+ *      java -Duser.dir=DIR gitlet.RepoGenerator [KEY=VALUE ...]
+ *
+ *  where the keys, with their defaults, are
+ *
+ *      seed=61         the seed of all random choices;
+ *      shape=linear    the form of the history: linear (every commit on
+ *                      master), branches (commits made in turn on each
+ *                      of the branches) or crisscross (two branches that
+ *                      repeatedly merge each other, each merge having
+ *                      two merge bases);
+ *      commits=1000    the number of commits after the first;
+ *      branches=8      the number of branches, for shape=branches;
+ *      files=1000      the number of text files, spread over
+ *                      directories of DIR_SIZE files each;
+ *      size=256        the approximate size of each text file, in bytes;
+ *      binary=0        the number of binary files, of random bytes;
+ *      large=0         the number of large text files, under large/;
+ *      largesize=16m   the size of each large file, in bytes, with an
+ *                      optional k or m suffix;
+ *      changes=5       the number of files changed by each commit.
+ *
+ *  The first commit adds every file.  Each later commit rewrites
+ *  CHANGES text or binary files, and appends to one large file if there
+ *  are any.  Each command runs on a new Repository, as it would in its
+ *  own process.
+ *  @author KEVIN ZHU
+ */
+public class RepoGenerator {
+
+    /** Number of files in each generated directory. */
+    static final int DIR_SIZE = 100;
+    /** Size of each binary file, in bytes. */
+    private static final int BINARY_SIZE = 64 * 1024;
+    /** Number of bytes appended to a large file by each commit. */
+    private static final int APPEND_SIZE = 4096;
+    /** Default settings, by key. */
+    private static final String[] DEFAULTS = {
+        "seed=61", "shape=linear", "commits=1000", "branches=8", "files=1000",
+        "size=256", "binary=0", "large=0", "largesize=16m", "changes=5",
+    };
+
+    /** The settings of this generator, by key. */
+    private final Map<String, String> spec = new HashMap<>();
+    /** The source of every random choice. */
+    private final Random random;
+    /** The names of the files that commits rewrite. */
+    private final List<String> small = new ArrayList<>();
+    /** The names of the large files. */
+    private final List<String> large = new ArrayList<>();
+    /** Number of commits made so far. */
+    private int made;
+
+    /** Builds the repository that ARGS, as described above, specify. */
+    public static void main(String... args) {
+        new RepoGenerator(args).generate();
+    }
+
+    /** A generator of the repository that the KEY=VALUE pairs in ARGS,
+     *  as described above, specify. */
+    RepoGenerator(String... args) {
+        for (String[] pairs : new String[][] { DEFAULTS, args }) {
+            for (String pair : pairs) {
+                int eq = pair.indexOf('=');
+                boolean known = eq > 0 && (pairs == DEFAULTS
+                                           || spec.containsKey(pair.substring(0, eq)));
+                if (!known) {
+                    throw new IllegalArgumentException("bad setting: " + pair);
+                }
+                spec.put(pair.substring(0, eq), pair.substring(eq + 1));
+            }
+        }
+        random = new Random(number("seed"));
+    }
+
+    /** Returns the name of text file number I. */
+    static String textFile(int i) {
+        return String.format("d%d/f%d.txt", i / DIR_SIZE, i);
+    }
+
+    /** Builds the repository. */
+    void generate() {
+        command(rep -> rep.init());
+        for (int i = 0; i < number("files"); i += 1) {
+            small.add(textFile(i));
+        }
+        for (int i = 0; i < number("binary"); i += 1) {
+            small.add(String.format("bin/b%d.dat", i));
+        }
+        for (int i = 0; i < number("large"); i += 1) {
+            large.add(String.format("large/l%d.txt", i));
+        }
+        for (String name : small) {
+            rewrite(name);
+        }
+        for (String name : large) {
+            File file = join(Repository.CWD, name);
+            file.getParentFile().mkdirs();
+            writeContents(file, text((int) number("largesize")));
+        }
+        command(rep -> rep.add("."));
+        command(rep -> rep.commit("commit 0"));
+
+        int commits = (int) number("commits");
+        switch (spec.get("shape")) {
+            case "linear":
+                while (made < commits) {
+                    change();
+                }
+                break;
+            case "branches":
+                branches(commits, (int) number("branches"));
+                break;
+            case "crisscross":
+                crissCross(commits);
+                break;
+            default:
+                throw new IllegalArgumentException("unknown shape: " + spec.get("shape"));
+        }
+    }
+
+    /** Makes COMMITS commits, in turn on master and on BRANCHES - 1 other
+     *  branches, all started from the first commit, and checks master
+     *  out again. */
+    private void branches(int commits, int branches) {
+        for (int b = 1; b < branches; b += 1) {
+            String name = "b" + b;
+            command(rep -> rep.branch(name));
+        }
+        String current = "master";
+        while (made < commits) {
+            int b = made % branches;
+            String name = b == 0 ? "master" : "b" + b;
+            if (!name.equals(current)) {
+                command(rep -> rep.checkout(new String[] { "checkout", name }));
+                current = name;
+            }
+            change();
+        }
+        if (!current.equals("master")) {
+            command(rep -> rep.checkout(new String[] { "checkout", "master" }));
+        }
+    }
+
+    /** Makes about COMMITS commits on master and a branch named other,
+     *  which in each round R commit changes and then merge each other's
+     *  new tip (kept for master as branch tR), so that the two merges have
+     *  the same parents.  Merge picks just one of the resulting merge
+     *  bases, so to avoid conflicts master and other change files in
+     *  different quarters, and in different quarters from the round
+     *  before.  Leaves master checked out. */
+    private void crissCross(int commits) {
+        command(rep -> rep.branch("other"));
+        int quarter = small.size() / 4;
+        for (int round = 0; made < commits; round += 1) {
+            int start = (round % 2) * quarter;
+            String tip = "t" + round;
+            change(start, start + quarter);
+            command(rep -> rep.checkout(new String[] { "checkout", "other" }));
+            change(2 * quarter + start, 3 * quarter + start);
+            command(rep -> rep.branch(tip));
+            command(rep -> rep.merge("master"));
+            command(rep -> rep.checkout(new String[] { "checkout", "master" }));
+            command(rep -> rep.merge(tip));
+            made += 2;
+        }
+    }
+
+    /** Commits changes to files chosen from all of them. */
+    private void change() {
+        change(0, small.size());
+    }
+
+    /** Commits changes to files chosen from those numbered FROM up to but
+     *  not including TO, appending to one of the corresponding share of
+     *  the large files if there are any. */
+    private void change(int from, int to) {
+        List<String> names = new ArrayList<>();
+        for (int k = 0; k < number("changes"); k += 1) {
+            names.add(small.get(from + random.nextInt(to - from)));
+            rewrite(names.get(k));
+        }
+        List<String> share = large.subList(from * large.size() / small.size(),
+                                           to * large.size() / small.size());
+        if (!share.isEmpty()) {
+            String name = share.get(random.nextInt(share.size()));
+            File file = join(Repository.CWD, name);
+            byte[] old = readContents(file);
+            byte[] added = text(APPEND_SIZE);
+            byte[] now = new byte[old.length + added.length];
+            System.arraycopy(old, 0, now, 0, old.length);
+            System.arraycopy(added, 0, now, old.length, added.length);
+            writeContents(file, now);
+            names.add(name);
+        }
+        String message = "commit " + (made + 1);
+        command(rep -> rep.add(names.toArray(new String[0])));
+        command(rep -> rep.commit(message));
+        made += 1;
+    }
+
+    /** Gives the file NAME new contents: text of about the size given
+     *  by the settings, or random bytes if it is a binary file. */
+    private void rewrite(String name) {
+        File file = join(Repository.CWD, name);
+        file.getParentFile().mkdirs();
+        if (name.endsWith(".dat")) {
+            byte[] contents = new byte[BINARY_SIZE];
+            random.nextBytes(contents);
+            writeContents(file, contents);
+        } else {
+            writeContents(file, text((int) number("size")));
+        }
+    }
+
+    /** Returns about LENGTH bytes of random lines of text. */
+    private byte[] text(int length) {
+        StringBuilder result = new StringBuilder(length + 16);
+        while (result.length() < length) {
+            result.append(Long.toString(random.nextLong() & Long.MAX_VALUE, 36));
+            result.append(random.nextInt(8) == 0 ? '\n' : ' ');
+        }
+        return result.append('\n').toString().getBytes();
+    }
+
+    /** Returns the setting KEY as a number, allowing a k or m suffix. */
+    private long number(String key) {
+        String value = spec.get(key).toLowerCase();
+        long scale = 1;
+        if (value.endsWith("k")) {
+            scale = 1024;
+        } else if (value.endsWith("m")) {
+            scale = 1024 * 1024;
+        }
+        if (scale > 1) {
+            value = value.substring(0, value.length() - 1);
+        }
+        return Long.parseLong(value) * scale;
+    }
+
+    /** Runs ACTION on a new Repository and flushes its writes, as Main
+     *  does for one command. */
+    static void command(Consumer<Repository> action) {
+        Repository rep = new Repository();
+        try {
+            action.accept(rep);
+        } finally {
+            rep.flush();
+        }
+    }
+}
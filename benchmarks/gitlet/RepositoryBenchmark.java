@@ -0,0 +1,256 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import static gitlet.Utils.*;
+
+/** Measures the core operations of gitlet on a generated repository,
+ *  writing the results as JSON so that runs of different versions can
+ *  be compared.  Usage:
+ *
+ *      java gitlet.RepositoryBenchmark [FILES [SIZE [COMMITS [BRANCHES [OUT]]]]]
+ *
+ *  makes a repository in a temporary directory holding FILES text files
+ *  (default 200) of about SIZE bytes each (default 1024), with a history
+ *  of COMMITS commits (default 50) spread over BRANCHES branches (default
+ *  4), each commit changing a few files.  It then times Utils.sha1,
+ *  Utils.serialize and Utils.readObject on objects of that size, and the
+ *  add, commit, status, log, checkout and merge commands on the
+ *  repository, each after unreported passes to warm up.  Each command
+ *  runs on a new Repository, as it would in its own process, with its
+ *  output discarded.  The mean, median, least and greatest times of
+ *  each operation are printed, and written to OUT (default
+ *  benchmark.json in the current directory).
+ *
+ *  Each merge timed joins a branch and master that have changed files
+ *  in different halves of the repository, so that none conflicts.
+ *  Since the repository directory is fixed when Repository is loaded,
+ *  each repository size needs a run of its own.
+ *  @author KEVIN ZHU
+ */
+public class RepositoryBenchmark {
+
+    /** Number of unreported passes over each operation. */
+    private static final int WARMUP = 5;
+    /** Number of timed passes over each operation. */
+    private static final int PASSES = 20;
+    /** Number of files changed by each commit of the history. */
+    private static final int CHANGED = 5;
+
+    /** The directory of the repository. */
+    private static File root;
+    /** The source of file contents and of the files changed. */
+    private static Random random = new Random(61);
+    /** Number of files in the repository. */
+    private static int files;
+    /** Approximate size of each file, in bytes. */
+    private static int size;
+    /** Where command output goes while commands are timed. */
+    private static final PrintStream DISCARD = new PrintStream(new OutputStream() {
+        @Override
+        public void write(int b) {
+        }
+    });
+
+    /** Runs the benchmark as described above. */
+    public static void main(String... args) throws IOException {
+        files = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        size = args.length > 1 ? Integer.parseInt(args[1]) : 1024;
+        int commits = args.length > 2 ? Integer.parseInt(args[2]) : 50;
+        int branches = args.length > 3 ? Integer.parseInt(args[3]) : 4;
+        File out = new File(args.length > 4 ? args[4] : "benchmark.json").getAbsoluteFile();
+
+        root = Files.createTempDirectory("gitlet-bench").toFile();
+        System.setProperty("user.dir", root.getPath());
+        makeHistory(commits, Math.max(branches, 2));
+
+        List<String> names = new ArrayList<>();
+        List<double[]> times = new ArrayList<>();
+        byte[] contents = text(size);
+        HashMap<String, String> tracked = new HashMap<>();
+        for (int i = 0; i < files; i += 1) {
+            tracked.put(name(i), sha1(name(i)));
+        }
+        Commit commit = new Commit("message", sha1("parent"), tracked);
+        File serialized = join(root, "commit.ser");
+        writeObject(serialized, commit);
+
+        measure(names, times, "sha1", () -> { }, () -> sha1(contents));
+        measure(names, times, "serialize", () -> { }, () -> serialize(commit));
+        measure(names, times, "readObject", () -> { },
+            () -> readObject(serialized, Commit.class));
+        measure(names, times, "add", () -> change(0, 1), () -> run("add", name(0)));
+        measure(names, times, "commit", () -> {
+            change(0, 1);
+            run("add", name(0));
+        }, () -> run("commit", "timed"));
+        measure(names, times, "status", () -> { }, () -> run("status"));
+        measure(names, times, "log", () -> { }, () -> run("log"));
+        String[] target = { "b1" };
+        measure(names, times, "checkout", () -> { }, () -> {
+            run("checkout", target[0]);
+            target[0] = target[0].equals("b1") ? "master" : "b1";
+        });
+        if (target[0].equals("master")) {
+            run("checkout", "master");
+        }
+        int[] merges = { 0 };
+        measure(names, times, "merge", () -> {
+            String other = "m" + merges[0];
+            merges[0] += 1;
+            run("branch", other);
+            commitChanges(1, 1, files / 2);
+            run("checkout", other);
+            commitChanges(1, files / 2, files);
+            run("checkout", "master");
+        }, () -> run("merge", "m" + (merges[0] - 1)));
+
+        System.out.printf("%d files of %d bytes, %d commits on %d branches, %d passes%n",
+                          files, size, commits, branches, PASSES);
+        System.out.printf("%-12s %12s %12s %12s %12s%n", "operation",
+                          "mean ms", "median", "min", "max");
+        for (int i = 0; i < names.size(); i += 1) {
+            double[] t = times.get(i);
+            System.out.printf("%-12s %12.3f %12.3f %12.3f %12.3f%n", names.get(i),
+                              mean(t), median(t), t[0], t[t.length - 1]);
+        }
+        writeContents(out, json(names, times, commits, branches));
+        System.out.println("Results written to " + out);
+    }
+
+    /** Initializes the repository and gives it COMMITS commits, the
+     *  first on master and the rest spread over BRANCHES branches,
+     *  master and b1 through b(BRANCHES - 1), leaving master checked
+     *  out. */
+    private static void makeHistory(int commits, int branches) {
+        run("init");
+        for (int i = 0; i < files; i += 1) {
+            writeContents(join(root, name(i)), text(size));
+        }
+        run("add", ".");
+        run("commit", "files");
+        for (int b = 1; b < branches; b += 1) {
+            run("branch", "b" + b);
+        }
+        String current = "master";
+        for (int c = 1; c < commits; c += 1) {
+            int b = c % branches;
+            String branch = b == 0 ? "master" : "b" + b;
+            if (!branch.equals(current)) {
+                run("checkout", branch);
+                current = branch;
+            }
+            commitChanges(CHANGED, 1, files);
+        }
+        if (!current.equals("master")) {
+            run("checkout", "master");
+        }
+    }
+
+    /** Changes COUNT files numbered FROM up to but not including TO,
+     *  adds them and commits them. */
+    private static void commitChanges(int count, int from, int to) {
+        String[] args = new String[count + 1];
+        args[0] = "add";
+        for (int k = 1; k <= count; k += 1) {
+            args[k] = change(from, to);
+        }
+        run(args);
+        run("commit", "changes");
+    }
+
+    /** Rewrites a file chosen at random from those numbered FROM up to
+     *  but not including TO, and returns its name. */
+    private static String change(int from, int to) {
+        String name = name(from + random.nextInt(to - from));
+        writeContents(join(root, name), text(size));
+        return name;
+    }
+
+    /** Times PASSES runs of OPERATION, each preceded by an untimed run of
+     *  SETUP, after WARMUP untimed runs of both, and adds LABEL and the
+     *  times, in milliseconds and in increasing order, to NAMES and
+     *  TIMES. */
+    private static void measure(List<String> names, List<double[]> times, String label,
+                                Runnable setup, Runnable operation) {
+        double[] result = new double[PASSES];
+        for (int pass = -WARMUP; pass < PASSES; pass += 1) {
+            setup.run();
+            long start = System.nanoTime();
+            operation.run();
+            if (pass >= 0) {
+                result[pass] = (System.nanoTime() - start) / 1e6;
+            }
+        }
+        Arrays.sort(result);
+        names.add(label);
+        times.add(result);
+    }
+
+    /** Runs the gitlet command ARGS on a new Repository, discarding its
+     *  output. */
+    private static void run(String... args) {
+        PrintStream stdout = System.out;
+        System.setOut(DISCARD);
+        try {
+            Main.run(new Repository(), args);
+        } finally {
+            System.setOut(stdout);
+        }
+    }
+
+    /** Returns the results in NAMES and TIMES, for a history of COMMITS
+     *  commits on BRANCHES branches, as a JSON object. */
+    private static String json(List<String> names, List<double[]> times,
+                               int commits, int branches) {
+        StringBuilder result = new StringBuilder();
+        result.append(String.format(Locale.ROOT,
+            "{\n  \"parameters\": {\"files\": %d, \"fileSize\": %d, \"commits\": %d,"
+            + " \"branches\": %d, \"warmup\": %d, \"passes\": %d},\n  \"results\": [\n",
+            files, size, commits, branches, WARMUP, PASSES));
+        for (int i = 0; i < names.size(); i += 1) {
+            double[] t = times.get(i);
+            result.append(String.format(Locale.ROOT,
+                "    {\"operation\": \"%s\", \"unit\": \"ms\", \"mean\": %.4f,"
+                + " \"median\": %.4f, \"min\": %.4f, \"max\": %.4f}%s\n",
+                names.get(i), mean(t), median(t), t[0], t[t.length - 1],
+                i + 1 < names.size() ? "," : ""));
+        }
+        return result.append("  ]\n}\n").toString();
+    }
+
+    /** Returns the name of file number I. */
+    private static String name(int i) {
+        return "f" + i + ".txt";
+    }
+
+    /** Returns about LENGTH bytes of random lines of text. */
+    private static byte[] text(int length) {
+        StringBuilder result = new StringBuilder();
+        while (result.length() < length) {
+            result.append(Long.toString(random.nextLong() & Long.MAX_VALUE, 36));
+            result.append(random.nextInt(8) == 0 ? '\n' : ' ');
+        }
+        return result.append('\n').toString().getBytes();
+    }
+
+    /** Returns the mean of the sorted TIMES. */
+    private static double mean(double[] times) {
+        return Arrays.stream(times).average().orElse(0);
+    }
+
+    /** Returns the median of the sorted TIMES. */
+    private static double median(double[] times) {
+        return times[times.length / 2];
+    }
+}
@@ -0,0 +1,284 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static gitlet.Utils.*;
+
+/** Runs gitlet commands against large generated repositories and checks
+ *  their running times and allocation against budgets.  Usage:
+ *
+ *      java gitlet.ScaleHarness [--keep] [BUDGETS [SCENARIO ...]]
+ *
+ *  reads BUDGETS (default benchmarks/scale-budgets.txt), whose lines
+ *  other than blank lines and # comments are either
+ *
+ *      scenario NAME SETTING ...
+ *
+ *  naming a repository that RepoGenerator builds from SETTINGs, or
+ *
+ *      budget NAME STEP MILLIS MEGABYTES
+ *
+ *  limiting the wall-clock time and heap allocation of one of the steps
+ *  below in scenario NAME.  For each scenario (or just those named),
+ *  it generates the repository in a temporary directory (deleted
+ *  afterwards unless --keep is given) and runs, in order, the steps
+ *
+ *      status, log, global-log, find     the commands of those names;
+ *      add, commit                       adding and committing a change
+ *                                        to one file;
+ *      reset-old, reset-new              resetting to the first commit
+ *                                        and back again;
+ *      merge                             merging a branch that adds a
+ *                                        file into master, which has
+ *                                        changed another.
+ *
+ *  Each command runs in a JVM of its own, as it would from the command
+ *  line, with the Epsilon collector, so that heap use measures
+ *  everything the command allocated, and with a heap twice its
+ *  allocation budget.  Times exclude JVM startup.  Prints a line per
+ *  step and exits with status 1 if any step exceeded a budget or
+ *  failed.
+ *  @author KEVIN ZHU
+ */
+public class ScaleHarness {
+
+    /** Heap size, in megabytes, for steps without a budget. */
+    private static final long DEFAULT_HEAP = 4096;
+    /** Heap, in megabytes, allowed beyond each allocation budget. */
+    private static final long HEAP_MARGIN = 64;
+
+    /** Generator settings, by scenario. */
+    private static Map<String, String[]> scenarios = new LinkedHashMap<>();
+    /** Budgets, {milliseconds, megabytes}, by scenario and step. */
+    private static Map<String, long[]> budgets = new HashMap<>();
+    /** The directory of the repository of the current scenario. */
+    private static File root;
+    /** Number of steps that failed or exceeded a budget. */
+    private static int failures;
+
+    /** Runs the harness as described above, or, when the first of ARGS
+     *  is --run, runs the command in the rest of ARGS after the result
+     *  file and writes its time and allocation to that file. */
+    public static void main(String... args) throws IOException {
+        if (args.length > 0 && args[0].equals("--run")) {
+            measure(new File(args[1]), Arrays.copyOfRange(args, 2, args.length));
+            return;
+        }
+        boolean keep = args.length > 0 && args[0].equals("--keep");
+        List<String> rest = new ArrayList<>(Arrays.asList(args).subList(keep ? 1 : 0,
+                                                                          args.length));
+        File budgetFile = new File(rest.isEmpty() ? "benchmarks/scale-budgets.txt"
+                                   : rest.remove(0));
+        readBudgets(budgetFile);
+        List<String> names = rest.isEmpty() ? new ArrayList<>(scenarios.keySet()) : rest;
+
+        System.out.printf("%-12s %-12s %10s %10s %10s %10s%n", "scenario", "step",
+                          "ms", "budget", "MB", "budget");
+        for (String name : names) {
+            if (!scenarios.containsKey(name)) {
+                throw new IllegalArgumentException("unknown scenario: " + name);
+            }
+            root = Files.createTempDirectory("gitlet-scale-" + name).toFile();
+            try {
+                long start = System.nanoTime();
+                String error = fork(null, 0, "gitlet.RepoGenerator", scenarios.get(name));
+                if (error != null) {
+                    throw new IllegalStateException("generating " + name + ": " + error);
+                }
+                System.out.printf("%-12s %-12s %10d%n", name, "(generate)",
+                                  (System.nanoTime() - start) / 1000000);
+                runSteps(name);
+            } finally {
+                if (keep) {
+                    System.out.println("Kept " + root);
+                } else {
+                    delete(root);
+                }
+            }
+        }
+        if (failures > 0) {
+            System.out.println(failures + " steps failed or exceeded their budgets.");
+            System.exit(1);
+        }
+    }
+
+    /** Runs the steps described above on the repository of scenario
+     *  NAME. */
+    private static void runSteps(String name) throws IOException {
+        step(name, "status", "status");
+        step(name, "log", "log");
+        step(name, "global-log", "global-log");
+        step(name, "find", "find", "commit 1");
+        writeContents(join(root, RepoGenerator.textFile(0)), "changed by the harness\n");
+        step(name, "add", "add", RepoGenerator.textFile(0));
+        step(name, "commit", "commit", "harness change");
+        String newId = readContentsAsString(join(root, ".gitlet", "branch", "master"));
+        String firstId = run("find", "commit 0").trim();
+        step(name, "reset-old", "reset", firstId);
+        step(name, "reset-new", "reset", newId);
+
+        run("branch", "harness");
+        writeContents(join(root, RepoGenerator.textFile(1)), "changed on master\n");
+        run("add", RepoGenerator.textFile(1));
+        run("commit", "harness master");
+        run("checkout", "harness");
+        writeContents(join(root, "harness.txt"), "added on a branch\n");
+        run("add", "harness.txt");
+        run("commit", "harness branch");
+        run("checkout", "master");
+        step(name, "merge", "merge", "harness");
+    }
+
+    /** Runs the gitlet command ARGS as step STEP of scenario NAME,
+     *  reporting its time and allocation and checking them against their
+     *  budget. */
+    private static void step(String name, String step, String... args) throws IOException {
+        long[] budget = budgets.get(name + " " + step);
+        long heap = budget == null ? DEFAULT_HEAP : 2 * budget[1] + HEAP_MARGIN;
+        File result = new File(root.getParentFile(), root.getName() + ".result");
+        File out = new File(root.getParentFile(), root.getName() + ".out");
+        result.delete();
+        String[] runArgs = new String[args.length + 2];
+        runArgs[0] = "--run";
+        runArgs[1] = result.getPath();
+        System.arraycopy(args, 0, runArgs, 2, args.length);
+        String error = fork(out, heap, "gitlet.ScaleHarness", runArgs);
+        String[] output = readContentsAsString(out).trim().split("\n");
+        out.delete();
+        if (error != null || !result.isFile()) {
+            failures += 1;
+            System.out.printf("%-12s %-12s FAILED: %s%n", name, step,
+                              error == null || error.isEmpty() ? output[output.length - 1]
+                              : error);
+            return;
+        }
+        String[] measured = readContentsAsString(result).trim().split(" ");
+        result.delete();
+        long millis = Long.parseLong(measured[0]);
+        long megabytes = Long.parseLong(measured[1]) / (1024 * 1024);
+        boolean over = budget != null && (millis > budget[0] || megabytes > budget[1]);
+        if (over) {
+            failures += 1;
+        }
+        System.out.printf("%-12s %-12s %10d %10s %10d %10s%s%n", name, step,
+                          millis, budget == null ? "-" : budget[0], megabytes,
+                          budget == null ? "-" : budget[1], over ? "  OVER BUDGET" : "");
+    }
+
+    /** Runs the gitlet command ARGS, unmeasured, in the repository of the
+     *  current scenario, and returns its output. */
+    private static String run(String... args) throws IOException {
+        File out = new File(root.getParentFile(), root.getName() + ".out");
+        String[] runArgs = new String[args.length + 2];
+        runArgs[0] = "--run";
+        runArgs[1] = new File(root.getParentFile(), root.getName() + ".result").getPath();
+        System.arraycopy(args, 0, runArgs, 2, args.length);
+        String error = fork(out, 0, "gitlet.ScaleHarness", runArgs);
+        if (error != null) {
+            throw new IllegalStateException(String.join(" ", args) + ": " + error);
+        }
+        String result = readContentsAsString(out);
+        out.delete();
+        return result;
+    }
+
+    /** Runs class MAIN with ARGS in a new JVM, in the directory of the
+     *  current scenario, sending its standard output to OUT, or
+     *  discarding it if OUT is null.  If HEAP is positive, the JVM uses
+     *  the Epsilon collector, which never frees memory, with a heap of
+     *  HEAP megabytes.  Returns null if it succeeds, and otherwise the
+     *  first line of its error output, or an empty string if there is
+     *  none. */
+    private static String fork(File out, long heap, String main, String... args)
+        throws IOException {
+        List<String> command = new ArrayList<>();
+        command.add(new File(System.getProperty("java.home"), "bin/java").getPath());
+        if (heap > 0) {
+            command.addAll(Arrays.asList("-XX:+UnlockExperimentalVMOptions",
+                                         "-XX:+UseEpsilonGC", "-Xlog:disable",
+                                         "-Xmx" + heap + "m"));
+        }
+        command.addAll(Arrays.asList("-Duser.dir=" + root.getPath(),
+                                     "-cp", System.getProperty("java.class.path"), main));
+        command.addAll(Arrays.asList(args));
+        File err = new File(root.getParentFile(), root.getName() + ".err");
+        ProcessBuilder builder = new ProcessBuilder(command).directory(root)
+            .redirectError(err);
+        if (out == null) {
+            builder.redirectOutput(ProcessBuilder.Redirect.DISCARD);
+        } else {
+            builder.redirectOutput(out);
+        }
+        try {
+            int status = builder.start().waitFor();
+            String error = readContentsAsString(err).trim();
+            err.delete();
+            if (status == 0) {
+                return null;
+            }
+            return error.split("\n")[0];
+        } catch (InterruptedException excp) {
+            throw new IllegalStateException(excp);
+        }
+    }
+
+    /** Runs the gitlet command ARGS in this JVM, as Main does, and writes
+     *  the milliseconds it took and the bytes it allocated to RESULT.  A
+     *  command that reports an error fails, with the error as its error
+     *  output. */
+    private static void measure(File result, String... args) {
+        long before = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+        long start = System.nanoTime();
+        try {
+            Main.run(new Repository(), args);
+        } catch (GitletException excp) {
+            if (excp.getMessage() != null) {
+                System.err.println(excp.getMessage());
+            }
+            System.exit(1);
+        }
+        long millis = (System.nanoTime() - start) / 1000000;
+        long after = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+        writeContents(result, millis + " " + (after - before) + "\n");
+    }
+
+    /** Reads the scenarios and budgets in FILE. */
+    private static void readBudgets(File file) {
+        int lineNumber = 0;
+        for (String line : readContentsAsString(file).split("\n")) {
+            lineNumber += 1;
+            String[] words = line.trim().split("\\s+");
+            if (words[0].isEmpty() || words[0].startsWith("#")) {
+                continue;
+            } else if (words[0].equals("scenario") && words.length >= 2) {
+                scenarios.put(words[1], Arrays.copyOfRange(words, 2, words.length));
+            } else if (words[0].equals("budget") && words.length == 5) {
+                budgets.put(words[1] + " " + words[2],
+                            new long[] { Long.parseLong(words[3]), Long.parseLong(words[4]) });
+            } else {
+                throw new IllegalArgumentException(file + ":" + lineNumber
+                                                   + ": bad line: " + line);
+            }
+        }
+    }
+
+    /** Deletes FILE, and if it is a directory, everything in it. */
+    private static void delete(File file) {
+        File[] contents = file.listFiles();
+        if (contents != null) {
+            for (File f : contents) {
+                delete(f);
+            }
+        }
+        file.delete();
+    }
+}
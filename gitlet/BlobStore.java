@@ -0,0 +1,742 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import static gitlet.Utils.*;
+
+/**
+ * The blob objects of a repository.  The stored form of each blob (see
+ * ObjectStore) starts with a small header,
+ *
+ *     int     magic "GLOB"
+ *     byte    object type ('b' for a blob)
+ *     byte    storage method (0 stored, 1 deflated)
+ *     long    length of the uncompressed contents
+ *
+ * followed by the contents, deflate-compressed unless the repository's
+ * compression.level setting is 0.  Blobs are written and read as
+ * streams, so no blob is ever held in memory in full unless a caller
+ * asks for its contents.  Blob files without a header were written by
+ * earlier versions of gitlet and hold their contents verbatim.
+ *
+ * Packs may also hold a blob as a delta (see Delta) against another
+ * blob, its base.  A delta has type 'd', and its header is followed by
+ * the raw id of the base and then by the (possibly deflated) delta.
+ * repack() chooses bases from the history of each file, so that each
+ * version is stored as a delta against the next newer one, and keeps
+ * chains of deltas no longer than MAX_DEPTH.  Reading a delta means
+ * reading its base first.  The contents of recently read blobs, and so
+ * of recently reconstructed bases, are cached.
+ * Blobs may be read by several threads at once.
+ *
+ * A file of CHUNK_THRESHOLD bytes or more is split by a Chunker into
+ * chunks, each stored as a blob of its own, and is stored as a chunk
+ * list, of type 'c', whose (possibly deflated) contents are
+ *
+ *     int     number of chunks
+ *     then, for each chunk in order,
+ *     byte[20] raw id of the chunk's blob
+ *     int     length of the chunk
+ *
+ * Versions of a large file that share most of their bytes thus share
+ * most of their chunks, and storing a new version writes only the
+ * chunks that are not yet stored.  A chunk list is read by streaming
+ * its chunks one after another.
+ *
+ * The id of a blob is the SHA-1 hash of "blob ", the length of its
+ * contents in decimal, a NUL byte, and then the contents themselves.
+ * Earlier versions of gitlet used the hash of the Java serialization of
+ * the contents as a byte array; such ids remain valid names for the blobs
+ * that old commits track, and legacyIdOf() computes them for comparison.
+ *
+ * @author KEVIN ZHU
+ */
+class BlobStore {
+    /** First four bytes of a blob file. */
+    static final int MAGIC = 0x474c4f42;
+    /** Type byte of a blob. */
+    static final byte BLOB = 'b';
+    /** Type byte of a delta against another blob. */
+    static final byte DELTA = 'd';
+    /** Type byte of a list of chunks. */
+    static final byte CHUNKED = 'c';
+    /** Size of the smallest file stored as chunks. */
+    static final long CHUNK_THRESHOLD = Chunker.MAX_SIZE;
+    /** Storage method of uncompressed contents. */
+    static final byte STORED = 0;
+    /** Storage method of deflate-compressed contents. */
+    static final byte DEFLATED = 1;
+    /** Length of the header in bytes. */
+    static final int HEADER_LENGTH = 14;
+    /** Compression level used when the configuration sets none. */
+    static final int DEFAULT_LEVEL = 6;
+    /** Longest chain of deltas that chooseBases() will make. */
+    static final int MAX_DEPTH = 10;
+    /** The Java serialization of a byte array, up to its length. */
+    private static final byte[] LEGACY_PREFIX = {
+        (byte) 0xac, (byte) 0xed, 0x00, 0x05, 0x75, 0x72, 0x00, 0x02, 0x5b,
+        0x42, (byte) 0xac, (byte) 0xf3, 0x17, (byte) 0xf8, 0x06, 0x08, 0x54,
+        (byte) 0xe0, 0x02, 0x00, 0x00, 0x78, 0x70,
+    };
+    /** Size of the buffers used to copy contents. */
+    private static final int BUFFER_SIZE = 64 * 1024;
+    /** Total size of the blob contents kept in memory. */
+    static final long CACHE_LIMIT = 32L * 1024 * 1024;
+
+    /** The objects of the repository. */
+    private final ObjectStore objects;
+    /** The repository settings. */
+    private final Config config;
+    /** The contents of recently read blobs, including delta bases. */
+    private final ObjectCache<byte[]> cache;
+
+    /** The blobs among OBJECTS, written as CONFIG directs. */
+    BlobStore(ObjectStore objects, Config config) {
+        this(objects, config,
+             new ObjectCache<>("blobs", CACHE_LIMIT, contents -> contents.length));
+    }
+
+    /** The blobs among OBJECTS, written as CONFIG directs, whose contents
+     *  are kept in CACHE once read. */
+    BlobStore(ObjectStore objects, Config config, ObjectCache<byte[]> cache) {
+        this.objects = objects;
+        this.config = config;
+        this.cache = cache;
+    }
+
+    /** Returns the id of the blob whose contents are those of FILE. */
+    static String idOf(File file) {
+        return digest(file, ("blob " + file.length() + "\0")
+                      .getBytes(StandardCharsets.UTF_8));
+    }
+
+    /** Returns the id that earlier versions of gitlet gave the contents of
+     *  FILE, or null if FILE is too long for them to have stored it. */
+    static String legacyIdOf(File file) {
+        long length = file.length();
+        if (length > Integer.MAX_VALUE) {
+            return null;
+        }
+        byte[] header = Arrays.copyOf(LEGACY_PREFIX, LEGACY_PREFIX.length + 4);
+        ByteBuffer.wrap(header, LEGACY_PREFIX.length, 4).putInt((int) length);
+        return digest(file, header);
+    }
+
+    /** Returns the hex SHA-1 hash of HEADER followed by the contents of
+     *  FILE, which are read in fixed-size pieces. */
+    private static String digest(File file, byte[] header) {
+        Trace.Span span = Trace.start(Trace.SHA1);
+        try (InputStream in = new FileInputStream(file)) {
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            md.update(header);
+            byte[] buffer = new byte[BUFFER_SIZE];
+            long bytes = header.length;
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                md.update(buffer, 0, n);
+                bytes += n;
+            }
+            Trace.end(span, file, bytes);
+            return CommitIndex.toHex(md.digest());
+        } catch (IOException | NoSuchAlgorithmException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns true iff a blob with id ID is stored. */
+    boolean contains(String id) {
+        return objects.contains(ObjectStore.BLOB, id);
+    }
+
+    /** Stores the contents of SOURCE as the blob with id ID in the object
+     *  store's write batch, or freshens that blob if it already exists.
+     *  The contents are hashed as they are stored, and nothing is stored
+     *  unless they still hash to ID, so a file changed since ID was
+     *  computed cannot corrupt the store.  Safe to call from several
+     *  threads at once, even for the same ID. */
+    void write(String id, File source) {
+        if (contains(id)) {
+            objects.freshen(ObjectStore.BLOB, id);
+            return;
+        }
+        long length = source.length();
+        try (InputStream file = new FileInputStream(source)) {
+            MessageDigest check = MessageDigest.getInstance("SHA-1");
+            check.update(("blob " + length + "\0").getBytes(StandardCharsets.UTF_8));
+            InputStream in = new DigestInputStream(file, check);
+            if (length >= CHUNK_THRESHOLD) {
+                writeChunks(id, in, check);
+            } else {
+                store(id, BLOB, length, in, check);
+            }
+        } catch (IOException | NoSuchAlgorithmException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Throws IllegalArgumentException unless CHECK, which has digested
+     *  the header and contents of a blob, gives ID. */
+    private static void verify(String id, MessageDigest check) {
+        if (!CommitIndex.toHex(check.digest()).equals(id)) {
+            throw new IllegalArgumentException("contents of blob " + id
+                                               + " changed while it was stored");
+        }
+    }
+
+    /** Stores the contents of IN, split into chunks, as the blob with id
+     *  ID, storing each chunk not already stored.  The chunk list is
+     *  stored only if CHECK, which digests what is read from IN, then
+     *  gives ID. */
+    private void writeChunks(String id, InputStream in, MessageDigest check)
+        throws IOException {
+        ByteArrayOutputStream list = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(list);
+        long total = 0;
+        int count = 0;
+        out.writeInt(0);
+        Chunker chunker = new Chunker(in);
+        for (int n = chunker.next(); n > 0; n = chunker.next()) {
+            byte[] data = chunker.buffer();
+            String chunkId = idOf(data, n);
+            if (contains(chunkId)) {
+                objects.freshen(ObjectStore.BLOB, chunkId);
+            } else {
+                store(chunkId, BLOB, n, new ByteArrayInputStream(data, 0, n), null);
+            }
+            out.write(CommitIndex.toRaw(chunkId));
+            out.writeInt(n);
+            total += n;
+            count += 1;
+        }
+        byte[] contents = list.toByteArray();
+        ByteBuffer.wrap(contents).putInt(count);
+        ByteArrayOutputStream stored = new ByteArrayOutputStream();
+        writeStored(stored, CHUNKED, null, total, new ByteArrayInputStream(contents));
+        verify(id, check);
+        objects.batch().write(objects.looseFile(ObjectStore.BLOB, id), stored.toByteArray());
+    }
+
+    /** Stores the LENGTH bytes read from IN as an object of the given
+     *  TYPE with id ID in the object store's write batch.  If CHECK is not
+     *  null, it digests what is read from IN, and the object is stored
+     *  only if it then gives ID. */
+    private void store(String id, byte type, long length, InputStream in,
+                       MessageDigest check) {
+        File dest = objects.looseFile(ObjectStore.BLOB, id);
+        File temp = objects.batch().newTemp(dest);
+        Trace.Span span = Trace.start(Trace.WRITE);
+        try (OutputStream out = new BufferedOutputStream(
+                 new FileOutputStream(temp), BUFFER_SIZE)) {
+            writeStored(out, type, null, length, in);
+            if (check != null) {
+                verify(id, check);
+            }
+        } catch (IOException | IllegalArgumentException excp) {
+            temp.delete();
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        Trace.end(span, temp, temp.length());
+        objects.batch().add(temp, dest);
+    }
+
+    /** Returns the id of the blob whose contents are the first LENGTH
+     *  bytes of DATA. */
+    static String idOf(byte[] data, int length) {
+        Trace.Span span = Trace.start(Trace.SHA1);
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            md.update(("blob " + length + "\0").getBytes(StandardCharsets.UTF_8));
+            md.update(data, 0, length);
+            Trace.end(span, null, length);
+            return CommitIndex.toHex(md.digest());
+        } catch (NoSuchAlgorithmException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns a stream over the contents of the blob with id ID. */
+    InputStream open(String id) {
+        try {
+            BufferedInputStream in = new BufferedInputStream(
+                objects.open(ObjectStore.BLOB, id), BUFFER_SIZE);
+            in.mark(HEADER_LENGTH);
+            DataInputStream header = new DataInputStream(in);
+            try {
+                if (header.readInt() == MAGIC) {
+                    byte type = header.readByte();
+                    byte method = header.readByte();
+                    header.readLong();
+                    if (type == BLOB) {
+                        return method == DEFLATED ? inflating(in) : in;
+                    } else if (type == DELTA) {
+                        return new ByteArrayInputStream(readDelta(in, method));
+                    } else if (type == CHUNKED) {
+                        return concatenation(readChunks(in, method));
+                    }
+                }
+            } catch (EOFException excp) {
+                /* Too short for a header: a legacy blob. */
+            }
+            in.reset();
+            return in;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns the ids of the blobs that the blob with id ID needs to be
+     *  read: its base, if it is stored as a delta, or its chunks, if it
+     *  is stored as a chunk list. */
+    List<String> partsOf(String id) {
+        try (DataInputStream in = new DataInputStream(objects.open(ObjectStore.BLOB, id))) {
+            if (in.readInt() != MAGIC) {
+                return Collections.emptyList();
+            }
+            byte type = in.readByte();
+            byte method = in.readByte();
+            in.readLong();
+            if (type == DELTA) {
+                byte[] raw = new byte[UID_LENGTH / 2];
+                in.readFully(raw);
+                return Collections.singletonList(CommitIndex.toHex(raw));
+            } else if (type == CHUNKED) {
+                return readChunks(in, method);
+            }
+            return Collections.emptyList();
+        } catch (EOFException excp) {
+            return Collections.emptyList();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns the ids of the chunks in the chunk list whose header has
+     *  been read from IN and whose storage method is METHOD.  Closes
+     *  IN. */
+    private static List<String> readChunks(InputStream in, byte method) throws IOException {
+        try (DataInputStream body = new DataInputStream(
+                 method == DEFLATED ? inflating(in) : in)) {
+            int count = body.readInt();
+            List<String> result = new ArrayList<>(count);
+            byte[] raw = new byte[UID_LENGTH / 2];
+            for (int i = 0; i < count; i += 1) {
+                body.readFully(raw);
+                body.readInt();
+                result.add(CommitIndex.toHex(raw));
+            }
+            return result;
+        }
+    }
+
+    /** Returns a stream over the contents of the blobs with ids IDS, one
+     *  after another, opening each only when it is reached. */
+    private InputStream concatenation(List<String> ids) {
+        Iterator<String> next = ids.iterator();
+        return new SequenceInputStream(new Enumeration<InputStream>() {
+            @Override
+            public boolean hasMoreElements() {
+                return next.hasNext();
+            }
+
+            @Override
+            public InputStream nextElement() {
+                return open(next.next());
+            }
+        });
+    }
+
+    /** Returns the contents of the delta whose header, up to the base id,
+     *  has been read from IN and whose storage method is METHOD.  Closes
+     *  IN. */
+    private byte[] readDelta(InputStream in, byte method) throws IOException {
+        byte[] raw = new byte[UID_LENGTH / 2];
+        new DataInputStream(in).readFully(raw);
+        byte[] delta;
+        try (InputStream body = method == DEFLATED ? inflating(in) : in) {
+            delta = readAll(body);
+        }
+        String baseId = CommitIndex.toHex(raw);
+        byte[] base = cachedBytes(baseId);
+        return Delta.apply(base, delta);
+    }
+
+    /** Returns the stored form that repack() should give the blob with id
+     *  ID when CHOSENBASES (from chooseBases) maps blobs to their delta
+     *  bases, or null if its current stored form will do.  A delta is used
+     *  only if it is smaller than the whole blob. */
+    ByteBuffer repackedForm(String id, Map<String, String> chosenBases) {
+        byte[] stored = objects.read(ObjectStore.BLOB, id);
+        boolean hasHeader = stored.length >= HEADER_LENGTH
+            && ByteBuffer.wrap(stored).getInt() == MAGIC;
+        boolean isDelta = hasHeader && stored[4] == DELTA;
+        if (hasHeader && stored[4] == CHUNKED) {
+            return null;
+        }
+        String baseId = chosenBases.get(id);
+        if (baseId == null || !contains(baseId) || typeOf(baseId) == CHUNKED) {
+            return isDelta ? storedForm(BLOB, null, readBytes(id)) : null;
+        }
+        byte[] contents = readBytes(id);
+        ByteBuffer whole = isDelta ? storedForm(BLOB, null, contents)
+            : ByteBuffer.wrap(stored);
+        ByteBuffer delta = storedForm(DELTA, baseId,
+                                      Delta.encode(readBytes(baseId), contents));
+        if (delta.remaining() < whole.remaining()) {
+            return delta;
+        }
+        return isDelta ? whole : null;
+    }
+
+    /** Returns the delta bases that repack() should use, given HISTORIES:
+     *  for each file, the ids of its successive versions, oldest first.
+     *  Each version is based on the next newer one unless that would make
+     *  a chain of more than MAX_DEPTH deltas.  No blob is ever based,
+     *  directly or indirectly, on itself. */
+    static Map<String, String> chooseBases(Collection<List<String>> histories) {
+        Map<String, String> result = new HashMap<>();
+        Map<String, Integer> depth = new HashMap<>();
+        for (List<String> history : histories) {
+            String newer = null;
+            for (int i = history.size() - 1; i >= 0; i -= 1) {
+                String id = history.get(i);
+                if (!depth.containsKey(id)) {
+                    if (newer != null && depth.get(newer) < MAX_DEPTH) {
+                        result.put(id, newer);
+                        depth.put(id, depth.get(newer) + 1);
+                    } else {
+                        depth.put(id, 0);
+                    }
+                }
+                newer = id;
+            }
+        }
+        return result;
+    }
+
+    /** Returns the stored form of an object of the given TYPE whose
+     *  contents are CONTENTS and, for a delta, whose base is BASEID. */
+    private ByteBuffer storedForm(byte type, String baseId, byte[] contents) {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            writeStored(out, type, baseId, contents.length,
+                        new ByteArrayInputStream(contents));
+            return ByteBuffer.wrap(out.toByteArray());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Writes to OUT the stored form of an object of the given TYPE whose
+     *  LENGTH bytes of contents are read from IN and, for a delta, whose
+     *  base is BASEID, compressed as the configuration directs. */
+    private void writeStored(OutputStream out, byte type, String baseId,
+                             long length, InputStream in) throws IOException {
+        int level = config.getInt(Config.COMPRESSION_LEVEL, DEFAULT_LEVEL);
+        if (level < 0 || level > 9) {
+            throw new IllegalArgumentException("bad compression level "
+                                               + level);
+        }
+        DataOutputStream header = new DataOutputStream(out);
+        header.writeInt(MAGIC);
+        header.writeByte(type);
+        header.writeByte(level == 0 ? STORED : DEFLATED);
+        header.writeLong(length);
+        if (baseId != null) {
+            header.write(CommitIndex.toRaw(baseId));
+        }
+        if (level == 0) {
+            copy(in, out);
+        } else {
+            Deflater deflater = new Deflater(level);
+            DeflaterOutputStream zip =
+                new DeflaterOutputStream(out, deflater, BUFFER_SIZE);
+            copy(in, zip);
+            zip.finish();
+            deflater.end();
+        }
+        header.flush();
+    }
+
+    /** Returns a stream that inflates the deflated contents of IN. */
+    private static InputStream inflating(InputStream in) {
+        final Inflater inflater = new Inflater();
+        return new InflaterInputStream(in, inflater, BUFFER_SIZE) {
+            @Override
+            public void close() throws IOException {
+                super.close();
+                inflater.end();
+            }
+        };
+    }
+
+    /** Writes the contents of the blob with id ID to DEST, creating or
+     *  overwriting it, and any missing directories above it, as needed,
+     *  and returns their length. */
+    long copyTo(String id, File dest) {
+        if (dest.isDirectory()) {
+            throw new IllegalArgumentException("cannot overwrite directory");
+        }
+        File parent = dest.getAbsoluteFile().getParentFile();
+        if (!parent.isDirectory()) {
+            parent.mkdirs();
+        }
+        try {
+            File loose = objects.looseSource(ObjectStore.BLOB, id);
+            if (loose != null) {
+                try (FileChannel in = FileChannel.open(loose.toPath(), StandardOpenOption.READ)) {
+                    ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+                    while (header.hasRemaining() && in.read(header) > 0) {
+                        continue;
+                    }
+                    header.flip();
+                    long length = uncompressedLength(header);
+                    if (length >= 0) {
+                        try (FileChannel out = FileChannel.open(dest.toPath(),
+                                 StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                                 StandardOpenOption.TRUNCATE_EXISTING)) {
+                            for (long n = 0; n < length; ) {
+                                n += in.transferTo(HEADER_LENGTH + n, length - n, out);
+                            }
+                        }
+                        return length;
+                    }
+                }
+            } else {
+                ByteBuffer contents = uncompressed(objects.findPacked(ObjectStore.BLOB, id));
+                if (contents != null) {
+                    long length = contents.remaining();
+                    try (FileChannel out = FileChannel.open(dest.toPath(),
+                             StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                             StandardOpenOption.TRUNCATE_EXISTING)) {
+                        while (contents.hasRemaining()) {
+                            out.write(contents);
+                        }
+                    }
+                    return length;
+                }
+            }
+            try (InputStream in = open(id);
+                 OutputStream out = new FileOutputStream(dest)) {
+                return copy(in, out);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns true iff FILE holds the contents of the blob with id ID.
+     *  Compares their lengths first, and then the contents themselves:
+     *  mapped into memory if the blob is stored whole and uncompressed,
+     *  and otherwise as streams. */
+    boolean matches(String id, File file) {
+        long length = file.length();
+        try {
+            File loose = objects.looseSource(ObjectStore.BLOB, id);
+            ByteBuffer contents = uncompressed(loose != null ? map(loose)
+                                               : objects.findPacked(ObjectStore.BLOB, id));
+            if (contents != null) {
+                return contents.remaining() == length
+                    && (length == 0 || contents.equals(map(file)));
+            }
+            if (lengthOf(id) != length) {
+                return false;
+            }
+            try (InputStream stored = open(id);
+                 InputStream in = new FileInputStream(file)) {
+                return sameStreams(stored, in);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns true iff the blob with id ID was stored by an earlier
+     *  version of gitlet, without a header, and so has a legacy id. */
+    boolean isLegacy(String id) {
+        return typeOf(id) == 0;
+    }
+
+    /** Returns the type byte of the blob with id ID, or 0 if it has no
+     *  header. */
+    private byte typeOf(String id) {
+        try (DataInputStream in = new DataInputStream(objects.open(ObjectStore.BLOB, id))) {
+            return in.readInt() == MAGIC ? in.readByte() : 0;
+        } catch (EOFException excp) {
+            return 0;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns the length of the contents of the blob with id ID. */
+    private long lengthOf(String id) {
+        try (DataInputStream in = new DataInputStream(objects.open(ObjectStore.BLOB, id))) {
+            if (in.readInt() == MAGIC) {
+                in.readByte();
+                in.readByte();
+                return in.readLong();
+            }
+        } catch (EOFException excp) {
+            /* Too short for a header: a legacy blob. */
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return objects.read(ObjectStore.BLOB, id).length;
+    }
+
+    /** Returns the contents of the blob whose stored form is STORED (which
+     *  may be null), without copying them, if it is stored whole and
+     *  uncompressed, and otherwise null. */
+    private static ByteBuffer uncompressed(ByteBuffer stored) {
+        if (stored == null) {
+            return null;
+        }
+        long length = uncompressedLength(stored.duplicate());
+        if (length < 0 || length != stored.remaining() - HEADER_LENGTH) {
+            return null;
+        }
+        ByteBuffer result = stored.duplicate();
+        result.position(result.position() + HEADER_LENGTH);
+        return result.slice();
+    }
+
+    /** Returns the length of the contents of the blob whose stored form
+     *  starts with the remaining bytes of HEADER, if it is stored whole
+     *  and uncompressed, and otherwise -1. */
+    private static long uncompressedLength(ByteBuffer header) {
+        if (header.remaining() < HEADER_LENGTH || header.getInt() != MAGIC
+                || header.get() != BLOB || header.get() != STORED) {
+            return -1;
+        }
+        return header.getLong();
+    }
+
+    /** Returns FILE mapped read-only into memory, or null if it is too
+     *  large to map at once. */
+    private static ByteBuffer map(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                return null;
+            }
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    /** Returns true iff A and B hold the same bytes.  Reads both to the
+     *  end unless they differ. */
+    private static boolean sameStreams(InputStream a, InputStream b) throws IOException {
+        byte[] bufferA = new byte[BUFFER_SIZE];
+        byte[] bufferB = new byte[BUFFER_SIZE];
+        while (true) {
+            int n = fill(a, bufferA);
+            int m = fill(b, bufferB);
+            if (n != m) {
+                return false;
+            }
+            for (int i = 0; i < n; i += 1) {
+                if (bufferA[i] != bufferB[i]) {
+                    return false;
+                }
+            }
+            if (n < BUFFER_SIZE) {
+                return true;
+            }
+        }
+    }
+
+    /** Reads from IN into BUFFER until BUFFER is full or IN ends, and
+     *  returns the number of bytes read. */
+    private static int fill(InputStream in, byte[] buffer) throws IOException {
+        int n = 0;
+        while (n < buffer.length) {
+            int count = in.read(buffer, n, buffer.length - n);
+            if (count < 0) {
+                break;
+            }
+            n += count;
+        }
+        return n;
+    }
+
+    /** Returns the contents of the blob with id ID. */
+    byte[] readBytes(String id) {
+        return cachedBytes(id).clone();
+    }
+
+    /** Returns the contents of the blob with id ID, which the caller must
+     *  not modify, reading them only if they are not in the cache. */
+    private byte[] cachedBytes(String id) {
+        byte[] result = cache.get(id);
+        if (result == null) {
+            try (InputStream in = open(id)) {
+                result = readAll(in);
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+            cache.put(id, result);
+        }
+        return result;
+    }
+
+    /** Returns a summary of the use made of the cache of contents. */
+    String cacheStats() {
+        return cache.stats();
+    }
+
+    /** Returns the contents of the blob with id ID as a String. */
+    String readString(String id) {
+        return new String(readBytes(id), StandardCharsets.UTF_8);
+    }
+
+    /** Returns everything remaining in IN. */
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        copy(in, out);
+        return out.toByteArray();
+    }
+
+    /** Copies all of IN to OUT, returning the number of bytes copied. */
+    static long copy(InputStream in, OutputStream out) throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        long total = 0;
+        int n;
+        while ((n = in.read(buffer)) > 0) {
+            out.write(buffer, 0, n);
+            total += n;
+        }
+        return total;
+    }
+}
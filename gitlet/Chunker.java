@@ -0,0 +1,98 @@
+package gitlet;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+
+/**
+ * Splits a stream into chunks at content-defined boundaries, so that an
+ * insertion or deletion in the middle of a large file changes only the
+ * chunks around it, and the rest, found again at the same boundaries,
+ * can be shared with earlier versions.
+ *
+ * A boundary follows each byte at which a rolling "gear" hash of the
+ * preceding bytes has its low AVERAGE_BITS bits all zero.  The hash is
+ * updated as h = (h << 1) + GEAR[b] for each byte b, so it depends only
+ * on the last 64 bytes.  Chunks are at least MIN_SIZE bytes long, and a
+ * chunk that reaches MAX_SIZE bytes ends there regardless; otherwise they
+ * average about MIN_SIZE + 2^AVERAGE_BITS bytes.  The gear table comes
+ * from a fixed seed, so every repository finds the same boundaries.
+ *
+ * @author KEVIN ZHU
+ */
+class Chunker {
+    /** Smallest chunk, except for the last. */
+    static final int MIN_SIZE = 256 * 1024;
+    /** Largest chunk. */
+    static final int MAX_SIZE = 4 * 1024 * 1024;
+    /** Number of low bits of the hash that must be zero at a boundary. */
+    private static final int AVERAGE_BITS = 20;
+    /** Mask selecting those bits. */
+    private static final long MASK = (1L << AVERAGE_BITS) - 1;
+    /** Number of bytes that determine the hash. */
+    private static final int WINDOW = 64;
+    /** The value added to the hash for each byte value. */
+    private static final long[] GEAR = new long[256];
+
+    static {
+        Random random = new Random(0x6769746cL);
+        for (int i = 0; i < GEAR.length; i += 1) {
+            GEAR[i] = random.nextLong();
+        }
+    }
+
+    /** The stream being split. */
+    private final InputStream in;
+    /** The current chunk, followed by input read beyond it. */
+    private final byte[] buffer = new byte[MAX_SIZE];
+    /** Number of bytes of BUFFER that hold input. */
+    private int filled;
+    /** Length of the current chunk, at the start of BUFFER. */
+    private int length;
+    /** True iff IN is exhausted. */
+    private boolean done;
+
+    /** A chunker of the contents of IN. */
+    Chunker(InputStream in) {
+        this.in = in;
+    }
+
+    /** Advances to the next chunk, returning its length, or 0 if there
+     *  are no more. */
+    int next() throws IOException {
+        System.arraycopy(buffer, length, buffer, 0, filled - length);
+        filled -= length;
+        while (!done && filled < buffer.length) {
+            int n = in.read(buffer, filled, buffer.length - filled);
+            if (n < 0) {
+                done = true;
+            } else {
+                filled += n;
+            }
+        }
+        length = boundary(buffer, filled);
+        return length;
+    }
+
+    /** Returns the buffer whose first next() bytes are the current chunk.
+     *  Its contents change with each call of next(). */
+    byte[] buffer() {
+        return buffer;
+    }
+
+    /** Returns the length of the chunk that starts DATA, of which the
+     *  first LIMIT bytes are available. */
+    static int boundary(byte[] data, int limit) {
+        if (limit <= MIN_SIZE) {
+            return limit;
+        }
+        long hash = 0;
+        for (int i = MIN_SIZE - WINDOW; i < limit; i += 1) {
+            hash = (hash << 1) + GEAR[data[i] & 0xff];
+            if (i >= MIN_SIZE - 1 && (hash & MASK) == 0) {
+                return i + 1;
+            }
+        }
+        return limit;
+    }
+}
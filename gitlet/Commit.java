@@ -1,18 +1,67 @@
 package gitlet;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.HashMap;
 import java.io.Serializable;
 import java.util.Date;
+import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
 import static gitlet.Utils.*;
 
 /**
  * Represents a gitlet commit object.
  * does at a high level.
  *
+ * Commits are stored in a versioned binary encoding (see encode()):
+ *
+ *     int     magic "GLCM"
+ *     byte    format version
+ *     long    commit time, in milliseconds since the epoch
+ *     byte    number of parents (0, 1 or 2), followed by each raw 20-byte id
+ *     int     message length, followed by the UTF-8 message
+ *     byte[20] raw id of the tree of the working directory (see Tree)
+ *
+ * Version 1 of the encoding, still read, has in place of the tree id
+ *
+ *     int     number of tracked files, followed by, in name order,
+ *             the name length, the UTF-8 name and the raw 20-byte blob id
+ *
+ * Everything before the tree id or tracked files is the header; read()
+ * decodes only the header and leaves the tracked files of a version 1
+ * commit to be decoded on first use.
+ * The commit id is the SHA-1 of this encoding.  Commits written by older
+ * versions of gitlet are Java-serialized; read() still accepts them and
+ * they keep the ids under which they were stored.
+ *
  * @author KEVIN ZHU
  */
 public class Commit implements Serializable {
+    /** Matches the class written by earlier versions, so that legacy
+     *  commit objects can still be deserialized. */
+    private static final long serialVersionUID = -6280755196170647604L;
+    /** First four bytes of an encoded commit. */
+    private static final int MAGIC = 0x474c434d;
+    /** Current encoding version. */
+    private static final byte VERSION = 2;
+    /** Encoding version of commits that list their tracked files. */
+    private static final byte FLAT_VERSION = 1;
+    /** Displayed time of the initial commit. */
+    private static final String INITIAL_TIME = "Thu Jan 1 00:00:00 1970 -0800";
+    /** Twelve hours, in milliseconds. */
+    private static final long HALF_DAY = 12L * 60 * 60 * 1000;
+
     /**
      *
      * List all instance variables of the Commit class here with a useful
@@ -29,33 +78,205 @@ public class Commit implements Serializable {
      */
     private String parent;
     /**
-     * The time of this Commit.
+     * The displayed time of a legacy Commit; null for encoded commits.
      */
     private String time;
+    /**
+     * The time of this Commit, in milliseconds since the epoch.
+     */
+    private long timestamp;
 
     private HashMap<String, String> tracked;
     private String id;
     private String mergeParent;
+    /**
+     * The id of the tree of this Commit, or null for commits that list
+     * their tracked files instead.
+     */
+    private String tree;
+
+    /** The encoding this Commit was read from, until its tracked files
+     *  have been decoded. */
+    private transient byte[] encoded;
+    /** Offset of the tracked files within ENCODED. */
+    private transient int trackedOffset;
 
     public Commit(String msg, String par, HashMap<String, String> track) {
-        Date now = new java.util.Date();
-        SimpleDateFormat format = new SimpleDateFormat("EEE MMM d hh:mm:ss YYYY");
-        time = format.format(now) + " -0800";
+        timestamp = System.currentTimeMillis();
         message = msg;
         parent = par;
         tracked = track;
+        mergeParent = null;
         id = setId();
+    }
+
+    /** A commit with message MSG and parent PAR whose files are those in
+     *  the tree with id TREE. */
+    public Commit(String msg, String par, String tree) {
+        timestamp = System.currentTimeMillis();
+        message = msg;
+        parent = par;
+        this.tree = tree;
         mergeParent = null;
+        id = setId();
+    }
+
+    /** A commit decoded from storage, whose tracked files are still
+     *  encoded in ENCODED starting at TRACKEDOFFSET. */
+    private Commit() {
     }
 
     public String setId() {
-        byte[] commit = serialize(this);
-        return sha1(commit);
+        return sha1(encode());
     }
 
     public String initialTimeSet() {
-        time = "Thu Jan 1 00:00:00 1970 -0800";
-        return time;
+        timestamp = 0;
+        id = setId();
+        return INITIAL_TIME;
+    }
+
+    /** Returns the encoded form of this commit. */
+    public byte[] encode() {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(MAGIC);
+            out.writeByte(tree != null ? VERSION : FLAT_VERSION);
+            out.writeLong(timestamp);
+            out.writeByte(parent == null ? 0 : mergeParent == null ? 1 : 2);
+            if (parent != null) {
+                out.write(CommitIndex.toRaw(parent));
+            }
+            if (parent != null && mergeParent != null) {
+                out.write(CommitIndex.toRaw(mergeParent));
+            }
+            writeString(out, message);
+            if (tree != null) {
+                out.write(CommitIndex.toRaw(tree));
+                out.close();
+                return bytes.toByteArray();
+            }
+            Map<String, String> sorted = new TreeMap<>(getTracked());
+            out.writeInt(sorted.size());
+            for (Map.Entry<String, String> entry : sorted.entrySet()) {
+                writeString(out, entry.getKey());
+                out.write(CommitIndex.toRaw(entry.getValue()));
+            }
+            out.close();
+            return bytes.toByteArray();
+        } catch (IOException excp) {
+            throw error("Internal error encoding commit.");
+        }
+    }
+
+    /** Returns the commit with id ID whose stored form is CONTENTS, which
+     *  may be either encoded or legacy.  Only the header is decoded. */
+    public static Commit read(String id, byte[] contents) {
+        if (contents.length >= 4 && (contents[0] & 0xff) == 0xac
+                && (contents[1] & 0xff) == 0xed) {
+            return readLegacy(id, contents);
+        }
+        return decode(id, contents);
+    }
+
+    /** Returns the commit with id ID whose encoding is CONTENTS. */
+    public static Commit decode(String id, byte[] contents) {
+        try {
+            ByteArrayInputStream bytes = new ByteArrayInputStream(contents);
+            DataInputStream in = new DataInputStream(bytes);
+            if (in.readInt() != MAGIC) {
+                throw error("Commit %s is not a commit object.", id);
+            }
+            byte version = in.readByte();
+            if (version != VERSION && version != FLAT_VERSION) {
+                throw error("Commit %s has unknown format %d.", id, version);
+            }
+            Commit result = new Commit();
+            result.id = id;
+            result.timestamp = in.readLong();
+            int parents = in.readByte();
+            if (parents > 0) {
+                result.parent = readId(in);
+            }
+            if (parents > 1) {
+                result.mergeParent = readId(in);
+            }
+            result.message = readString(in);
+            if (version == VERSION) {
+                result.tree = readId(in);
+            } else {
+                result.encoded = contents;
+                result.trackedOffset = contents.length - bytes.available();
+            }
+            return result;
+        } catch (IOException excp) {
+            throw error("Commit %s is corrupt.", id);
+        }
+    }
+
+    /** Returns the Java-serialized commit with id ID in CONTENTS.  Its
+     *  displayed time has a 12-hour clock and no AM or PM, so its
+     *  timestamp is the morning reading of it; see orderTimes(). */
+    private static Commit readLegacy(String id, byte[] contents) {
+        Trace.Span span = Trace.start(Trace.READ_OBJECT);
+        try (ObjectInputStream in =
+                 new ObjectInputStream(new ByteArrayInputStream(contents))) {
+            Commit result = (Commit) in.readObject();
+            Trace.end(span, null, contents.length);
+            result.id = id;
+            try {
+                SimpleDateFormat format =
+                    new SimpleDateFormat("EEE MMM d hh:mm:ss yyyy Z");
+                result.timestamp = format.parse(result.time).getTime();
+            } catch (ParseException | NullPointerException excp) {
+                result.timestamp = 0;
+            }
+            return result;
+        } catch (IOException | ClassCastException
+                 | ClassNotFoundException excp) {
+            throw error("Commit %s is corrupt.", id);
+        }
+    }
+
+    /** Decodes the tracked files left in ENCODED by decode(). */
+    private void decodeTracked() {
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(
+                encoded, trackedOffset, encoded.length - trackedOffset));
+            int count = in.readInt();
+            HashMap<String, String> result = new HashMap<>();
+            for (int i = 0; i < count; i += 1) {
+                String name = readString(in);
+                result.put(name, readId(in));
+            }
+            tracked = result;
+            encoded = null;
+        } catch (IOException excp) {
+            throw error("Commit %s is corrupt.", id);
+        }
+    }
+
+    /** Writes S to OUT as a length-prefixed UTF-8 string. */
+    private static void writeString(DataOutputStream out, String s)
+        throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /** Reads a string written by writeString from IN. */
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /** Reads a raw 20-byte id from IN, returning it in hexadecimal. */
+    private static String readId(DataInputStream in) throws IOException {
+        byte[] raw = new byte[UID_LENGTH / 2];
+        in.readFully(raw);
+        return CommitIndex.toHex(raw);
     }
 
     public String getMessage() {
@@ -64,6 +285,7 @@ public class Commit implements Serializable {
 
     public void setMessage(String message) {
         this.message = message;
+        id = setId();
     }
 
     public String getParent() {
@@ -72,22 +294,94 @@ public class Commit implements Serializable {
 
     public void setParent(String parent) {
         this.parent = parent;
+        id = setId();
     }
 
     public String getTime() {
-        return time;
+        if (time != null) {
+            return time;
+        }
+        return formatTime(timestamp);
+    }
+
+    /** Returns TIMESTAMP, in milliseconds since the epoch, as log displays
+     *  the time of an encoded commit. */
+    public static String formatTime(long timestamp) {
+        if (timestamp == 0) {
+            return INITIAL_TIME;
+        }
+        SimpleDateFormat format = new SimpleDateFormat("EEE MMM d hh:mm:ss YYYY");
+        return format.format(new Date(timestamp)) + " -0800";
+    }
+
+    /** Returns true iff this commit was written by an older version of
+     *  gitlet, and keeps the time it displays as text. */
+    public boolean isLegacy() {
+        return time != null;
     }
 
-    public void setTime(String time) {
-        this.time = time;
+    public long getTimestamp() {
+        return timestamp;
     }
 
+    /** Returns the times by which to order the commits in COMMITS, a map
+     *  from ids to commits, by id, in an order in which parents precede
+     *  their children.  A commit's time is its timestamp, except that a
+     *  legacy commit, whose timestamp may be 12 hours early, takes the
+     *  earliest of its timestamp and that plus 12 hours that is no earlier
+     *  than the times of its parents, or failing that their latest time.
+     *  So no commit orders before one of its parents among COMMITS. */
+    static Map<String, Long> orderTimes(Map<String, Commit> commits) {
+        Map<String, Long> result = new LinkedHashMap<>();
+        Deque<String> pending = new ArrayDeque<>();
+        for (String id : commits.keySet()) {
+            pending.push(id);
+            while (!pending.isEmpty()) {
+                String top = pending.peek();
+                Commit commit = commits.get(top);
+                if (result.containsKey(top)) {
+                    pending.pop();
+                } else if (commits.containsKey(commit.parent)
+                           && !result.containsKey(commit.parent)) {
+                    pending.push(commit.parent);
+                } else if (commits.containsKey(commit.mergeParent)
+                           && !result.containsKey(commit.mergeParent)) {
+                    pending.push(commit.mergeParent);
+                } else {
+                    pending.pop();
+                    long after =
+                        Math.max(result.getOrDefault(commit.parent, Long.MIN_VALUE),
+                                 result.getOrDefault(commit.mergeParent, Long.MIN_VALUE));
+                    long time = commit.timestamp;
+                    if (commit.isLegacy() && time < after) {
+                        time = Math.max(time + HALF_DAY, after);
+                    }
+                    result.put(top, time);
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Returns the files of this commit, by name, or null if it records
+     *  them in a tree instead (see getTree). */
     public HashMap<String, String> getTracked() {
+        if (tracked == null && encoded != null) {
+            decodeTracked();
+        }
         return tracked;
     }
 
     public void setTracked(HashMap<String, String> tracked) {
         this.tracked = tracked;
+        encoded = null;
+        id = setId();
+    }
+
+    /** Returns the id of the tree of this commit, or null if it lists its
+     *  tracked files instead (see getTracked). */
+    public String getTree() {
+        return tree;
     }
 
     public String getId() {
@@ -104,5 +398,6 @@ public class Commit implements Serializable {
 
     public void setMergeParent(String mergeParent) {
         this.mergeParent = mergeParent;
+        id = setId();
     }
 }
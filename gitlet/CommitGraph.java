@@ -0,0 +1,477 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import static gitlet.Utils.*;
+
+/**
+ * The ancestry of every commit in a repository, kept so that merge bases
+ * and ancestry can be computed without reading commit objects.
+ *
+ * The graph file holds a header (magic number and version) followed by
+ * one fixed-size record per commit,
+ *
+ *     byte[20] raw commit id
+ *     int      position of the first parent, or -1
+ *     int      position of the merge parent, or -1
+ *     long     commit time, in milliseconds
+ *     int      generation number
+ *
+ * in an order in which parents always precede their children, so that
+ * new commits are simply appended.  A commit's generation number is one
+ * more than the largest generation number of its parents (1 for a
+ * commit with none); a commit can only be an ancestor of commits with
+ * larger generation numbers, which lets searches stop early.
+ *
+ * The records of a command's new commits are appended by flush(),
+ * holding the repository lock, just before their objects are written;
+ * a record of a commit that was never written is harmless, since no
+ * query starts from it.
+ *
+ * Records are never decoded wholesale.  A new commit's parents are found
+ * by reading the file backwards from its end, which usually takes one
+ * block.  Ancestry queries read the file once and look records up by
+ * offset, searching for the commits they start from from the end.  The
+ * file is rebuilt from the object store if it is missing or does not
+ * know a commit.
+ *
+ * @author KEVIN ZHU
+ */
+class CommitGraph {
+    /** Identifies a graph file. */
+    private static final int MAGIC = 0x474c4347;
+    /** Current graph format version. */
+    private static final int VERSION = 1;
+    /** Length of a raw SHA-1 id in bytes. */
+    private static final int RAW_LENGTH = UID_LENGTH / 2;
+    /** Bytes taken by the magic number and version. */
+    private static final int HEADER_LENGTH = 8;
+    /** Bytes taken by one record. */
+    private static final int RECORD_LENGTH = RAW_LENGTH + 4 + 4 + 8 + 4;
+    /** Records read at a time when appending. */
+    private static final int SCAN_BLOCK = 256;
+    /** Flags used while searching for merge bases. */
+    private static final int PARENT1 = 1, PARENT2 = 2, STALE = 4;
+
+    /** The graph file. */
+    private final File file;
+    /** The objects of the repository. */
+    private final ObjectStore objects;
+
+    /** The records of the graph file, after its header, or null until
+     *  read. */
+    private ByteBuffer records;
+    /** The number of whole records in RECORDS. */
+    private int count;
+    /** The commits added since the last flush(). */
+    private final List<Commit> pending = new ArrayList<>();
+
+    /** A graph stored in FILE describing the commits among OBJECTS. */
+    CommitGraph(File file, ObjectStore objects) {
+        this.file = file;
+        this.objects = objects;
+    }
+
+    /** Records COMMIT, whose parents must already be in the graph or in
+     *  the object store, or be added before it, to be written by
+     *  flush(). */
+    synchronized void add(Commit commit) {
+        pending.add(commit);
+    }
+
+    /** Appends the records of the commits added since the last call to
+     *  the graph file, in the order they were added.  Must be called
+     *  holding the repository lock, before the new commits are written to
+     *  the object store. */
+    synchronized void flush() {
+        for (Commit commit : pending) {
+            if (!append(commit)) {
+                rebuild();
+                append(commit);
+            }
+        }
+        pending.clear();
+    }
+
+    /** Returns true iff the commit with id ANCESTOR is DESCENDANT or one of
+     *  its ancestors. */
+    boolean isAncestor(String ancestor, String descendant) {
+        int[] found = locate(ancestor, descendant);
+        return reaches(found[1], found[0]);
+    }
+
+    /** Returns true iff the commit at position TARGET is the one at START
+     *  or one of its ancestors. */
+    private boolean reaches(int start, int target) {
+        boolean[] seen = new boolean[count];
+        Deque<Integer> pending = new ArrayDeque<>();
+        pending.push(start);
+        seen[start] = true;
+        while (!pending.isEmpty()) {
+            int pos = pending.pop();
+            if (pos == target) {
+                return true;
+            }
+            for (int parent : new int[] { parent(pos), mergeParent(pos) }) {
+                if (parent >= 0 && !seen[parent]
+                        && generation(parent) >= generation(target)) {
+                    seen[parent] = true;
+                    pending.push(parent);
+                }
+            }
+        }
+        return false;
+    }
+
+    /** Returns the id of the best common ancestor of the commits with ids
+     *  A and B: of the common ancestors that are not ancestors of other
+     *  common ancestors, the one with the largest generation number, and
+     *  of those the newest.  Returns null if A and B have no common
+     *  ancestor. */
+    String mergeBase(String a, String b) {
+        int[] found = locate(a, b);
+        List<Integer> candidates = paintDown(found[0], found[1]);
+        List<Integer> best = new ArrayList<>();
+        for (int candidate : candidates) {
+            boolean redundant = false;
+            for (int other : candidates) {
+                if (other != candidate && reaches(other, candidate)) {
+                    redundant = true;
+                    break;
+                }
+            }
+            if (!redundant) {
+                best.add(candidate);
+            }
+        }
+        Integer result = null;
+        for (int pos : best) {
+            if (result == null || generation(pos) > generation(result)
+                    || generation(pos) == generation(result)
+                    && time(pos) > time(result)) {
+                result = pos;
+            }
+        }
+        return result == null ? null : id(result);
+    }
+
+    /** Returns the positions of the common ancestors of the commits at
+     *  positions ONE and TWO that are reached first when walking down from
+     *  both in order of decreasing generation number, so that every commit
+     *  is visited after all of its descendants.  Every merge base is among
+     *  them.  A commit may be queued more than once; its flags only grow,
+     *  so visiting it again does no harm.  The walk ends once every queued
+     *  commit is stale; QUEUED counts the copies of each commit in the
+     *  queue so that the number of non-stale ones can be kept up to date
+     *  as flags change. */
+    private List<Integer> paintDown(int one, int two) {
+        int[] flags = new int[count];
+        int[] queued = new int[count];
+        PriorityQueue<Integer> queue = new PriorityQueue<>(
+            (x, y) -> generation(y) != generation(x)
+                ? Integer.compare(generation(y), generation(x))
+                : Integer.compare(y, x));
+        flags[one] |= PARENT1;
+        flags[two] |= PARENT2;
+        queue.add(one);
+        queued[one] += 1;
+        if (two != one) {
+            queue.add(two);
+            queued[two] += 1;
+        }
+        int nonStale = queue.size();
+        List<Integer> result = new ArrayList<>();
+        while (nonStale > 0) {
+            int pos = queue.poll();
+            queued[pos] -= 1;
+            int paint = flags[pos] & (PARENT1 | PARENT2 | STALE);
+            if ((paint & STALE) == 0) {
+                nonStale -= 1;
+            }
+            if ((paint & (PARENT1 | PARENT2)) == (PARENT1 | PARENT2)) {
+                if ((paint & STALE) == 0) {
+                    result.add(pos);
+                    flags[pos] |= STALE;
+                    nonStale -= queued[pos];
+                }
+                paint |= STALE;
+            }
+            for (int parent : new int[] { parent(pos), mergeParent(pos) }) {
+                if (parent >= 0 && (flags[parent] & paint) != paint) {
+                    if ((flags[parent] & STALE) == 0 && (paint & STALE) != 0) {
+                        nonStale -= queued[parent];
+                    }
+                    flags[parent] |= paint;
+                    queue.add(parent);
+                    queued[parent] += 1;
+                    if ((flags[parent] & STALE) == 0) {
+                        nonStale += 1;
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Returns the positions of the commits with ids COMMITIDS, reading
+     *  the graph and rebuilding it if it does not know every one of them.
+     *  Throws IllegalArgumentException if one of them does not exist. */
+    private int[] locate(String... commitIds) {
+        load();
+        for (String id : commitIds) {
+            if (find(records, count, CommitIndex.toRaw(id)) < 0) {
+                rebuild();
+                load();
+                break;
+            }
+        }
+        int[] result = new int[commitIds.length];
+        for (int k = 0; k < commitIds.length; k += 1) {
+            result[k] = find(records, count, CommitIndex.toRaw(commitIds[k]));
+            if (result[k] < 0) {
+                throw new IllegalArgumentException("no such commit: " + commitIds[k]);
+            }
+        }
+        return result;
+    }
+
+    /** Reads the records of the graph file, if that has not been done,
+     *  rebuilding it if it is missing or unreadable.  A trailing partial
+     *  record, left by an interrupted append, is ignored.  The records are
+     *  not decoded; the accessors below read them by offset. */
+    private void load() {
+        if (records != null) {
+            return;
+        }
+        ByteBuffer data = null;
+        if (file.isFile()) {
+            data = ByteBuffer.wrap(readContents(file));
+        }
+        if (data == null || data.remaining() < HEADER_LENGTH
+                || data.getInt() != MAGIC || data.getInt() != VERSION) {
+            rebuild();
+            data = ByteBuffer.wrap(readContents(file));
+            data.position(HEADER_LENGTH);
+        }
+        records = data.slice();
+        count = records.remaining() / RECORD_LENGTH;
+    }
+
+    /** Returns the position of the first parent of the commit at POS, or
+     *  -1. */
+    private int parent(int pos) {
+        return records.getInt(pos * RECORD_LENGTH + RAW_LENGTH);
+    }
+
+    /** Returns the position of the merge parent of the commit at POS, or
+     *  -1. */
+    private int mergeParent(int pos) {
+        return records.getInt(pos * RECORD_LENGTH + RAW_LENGTH + 4);
+    }
+
+    /** Returns the time of the commit at POS. */
+    private long time(int pos) {
+        return records.getLong(pos * RECORD_LENGTH + RAW_LENGTH + 8);
+    }
+
+    /** Returns the generation number of the commit at POS. */
+    private int generation(int pos) {
+        return generation(records, pos);
+    }
+
+    /** Returns the id of the commit at POS. */
+    private String id(int pos) {
+        byte[] raw = new byte[RAW_LENGTH];
+        for (int i = 0; i < RAW_LENGTH; i += 1) {
+            raw[i] = records.get(pos * RECORD_LENGTH + i);
+        }
+        return CommitIndex.toHex(raw);
+    }
+
+    /** Appends the record of COMMIT to the graph file, unless it is
+     *  already there.  A commit's record always follows those of its
+     *  parents, so only the records after them are searched.  Returns
+     *  false, writing nothing, if the file is missing or unreadable, or
+     *  lacks a parent of COMMIT that is in the object store. */
+    private boolean append(Commit commit) {
+        if (!file.isFile()) {
+            return false;
+        }
+        byte[] self = CommitIndex.toRaw(commit.getId());
+        String[] parentIds = { commit.getParent(), commit.getMergeParent() };
+        byte[][] parentRaws = new byte[2][];
+        int[] found = { -1, -1 };
+        int[] generations = { 0, 0 };
+        int missing = 0;
+        for (int k = 0; k < 2; k += 1) {
+            if (parentIds[k] != null) {
+                parentRaws[k] = CommitIndex.toRaw(parentIds[k]);
+                missing += 1;
+            }
+        }
+        try (RandomAccessFile out = new RandomAccessFile(file, "rw")) {
+            if (out.length() < HEADER_LENGTH || out.readInt() != MAGIC
+                    || out.readInt() != VERSION) {
+                return false;
+            }
+            int total = (int) ((out.length() - HEADER_LENGTH) / RECORD_LENGTH);
+            byte[] block = new byte[SCAN_BLOCK * RECORD_LENGTH];
+            int end = total;
+            while (end > 0 && (missing > 0 || parentRaws[0] == null)) {
+                int start = Math.max(0, end - SCAN_BLOCK);
+                out.seek(HEADER_LENGTH + (long) start * RECORD_LENGTH);
+                out.readFully(block, 0, (end - start) * RECORD_LENGTH);
+                ByteBuffer data = ByteBuffer.wrap(block);
+                if (find(data, end - start, self) >= 0) {
+                    return true;
+                }
+                for (int k = 0; k < 2; k += 1) {
+                    if (parentRaws[k] != null && found[k] < 0) {
+                        int pos = find(data, end - start, parentRaws[k]);
+                        if (pos >= 0) {
+                            found[k] = start + pos;
+                            generations[k] = generation(data, pos);
+                            missing -= 1;
+                        }
+                    }
+                }
+                end = start;
+            }
+            for (int k = 0; k < 2; k += 1) {
+                if (parentRaws[k] != null && found[k] < 0
+                        && objects.contains(ObjectStore.COMMIT, parentIds[k])) {
+                    return false;
+                }
+            }
+            out.setLength(HEADER_LENGTH + (long) total * RECORD_LENGTH);
+            out.seek(out.length());
+            out.write(record(commit, found[0], found[1], commit.getTimestamp(),
+                             1 + Math.max(generations[0], generations[1])));
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        records = null;
+        return true;
+    }
+
+    /** Rewrites the graph file from the commits in the object store. */
+    private void rebuild() {
+        List<String> all = objects.list(ObjectStore.COMMIT);
+        Map<String, Commit> commits = new HashMap<>();
+        for (String id : all) {
+            commits.put(id, Commit.read(id, objects.read(ObjectStore.COMMIT, id)));
+        }
+        Map<String, Integer> positions = new HashMap<>();
+        int[] generations = new int[all.size()];
+        Map<String, Long> times = Commit.orderTimes(commits);
+        File temp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(
+                 new BufferedOutputStream(new FileOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            Deque<String> pending = new ArrayDeque<>();
+            for (String id : all) {
+                pending.push(id);
+                while (!pending.isEmpty()) {
+                    String top = pending.peek();
+                    Commit commit = commits.get(top);
+                    if (positions.containsKey(top)) {
+                        pending.pop();
+                    } else if (!ready(commit.getParent(), commits, positions)) {
+                        pending.push(commit.getParent());
+                    } else if (!ready(commit.getMergeParent(), commits, positions)) {
+                        pending.push(commit.getMergeParent());
+                    } else {
+                        pending.pop();
+                        int parent = position(commit.getParent(), positions);
+                        int mergeParent = position(commit.getMergeParent(), positions);
+                        int pos = positions.size();
+                        generations[pos] = 1 + Math.max(
+                            parent < 0 ? 0 : generations[parent],
+                            mergeParent < 0 ? 0 : generations[mergeParent]);
+                        out.write(record(commit, parent, mergeParent, times.get(top),
+                                         generations[pos]));
+                        positions.put(top, pos);
+                    }
+                }
+            }
+        } catch (IOException excp) {
+            temp.delete();
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        try {
+            Files.move(temp.toPath(), file.toPath(),
+                       StandardCopyOption.ATOMIC_MOVE,
+                       StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException excp) {
+            temp.delete();
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        records = null;
+    }
+
+    /** Returns true iff the parent ID, one of COMMITS, need not be
+     *  recorded before its child: it is null, missing from the object
+     *  store, or already has one of POSITIONS. */
+    private static boolean ready(String id, Map<String, Commit> commits,
+                                 Map<String, Integer> positions) {
+        return id == null || !commits.containsKey(id) || positions.containsKey(id);
+    }
+
+    /** Returns the position of the parent with id ID among POSITIONS, or
+     *  -1 if ID is null or unknown. */
+    private static int position(String id, Map<String, Integer> positions) {
+        Integer result = id == null ? null : positions.get(id);
+        return result == null ? -1 : result;
+    }
+
+    /** Returns the record of COMMIT, with the given PARENT and MERGEPARENT
+     *  positions, TIME and GENERATION. */
+    private static byte[] record(Commit commit, int parent, int mergeParent,
+                                 long time, int generation) {
+        ByteBuffer result = ByteBuffer.allocate(RECORD_LENGTH);
+        result.put(CommitIndex.toRaw(commit.getId()));
+        result.putInt(parent);
+        result.putInt(mergeParent);
+        result.putLong(time);
+        result.putInt(generation);
+        return result.array();
+    }
+
+    /** Returns the generation number in record POS of DATA. */
+    private static int generation(ByteBuffer data, int pos) {
+        return data.getInt(pos * RECORD_LENGTH + RAW_LENGTH + 16);
+    }
+
+    /** Returns the position of the last of the first N records of DATA
+     *  whose id is RAW, or -1 if there is none.  Recent commits, which are
+     *  the ones most often looked up, are found first. */
+    private static int find(ByteBuffer data, int n, byte[] raw) {
+        for (int pos = n - 1; pos >= 0; pos -= 1) {
+            int offset = pos * RECORD_LENGTH;
+            int i = 0;
+            while (i < RAW_LENGTH && data.get(offset + i) == raw[i]) {
+                i += 1;
+            }
+            if (i == RAW_LENGTH) {
+                return pos;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,317 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeSet;
+
+import static gitlet.Utils.*;
+
+/**
+ * A sorted index of every commit id in a repository, used to resolve full
+ * and abbreviated commit ids without listing the commit directory.
+ *
+ * The index file holds a header, a 256-entry fan-out table and the raw
+ * 20-byte ids in ascending order, followed by a tail of raw ids in the
+ * order they were added.  Entry B of the fan-out table is the number of
+ * sorted ids whose first byte is at most B, so the ids starting with byte
+ * B occupy positions [FANOUT[B - 1], FANOUT[B]).  Lookups binary-search
+ * that range with a handful of seeks and then scan the tail.
+ *
+ * New ids are kept in memory until flush(), which appends them to the
+ * tail under the repository lock, and merges the tail into the sorted
+ * ids once it holds TAIL_LIMIT of them, so a commit costs a short append
+ * and only every TAIL_LIMIT-th rewrites the file.  A partial record left
+ * at the end by an interrupted append is ignored and later overwritten.
+ * The index is rebuilt from the object store when it is missing or
+ * unreadable, and by callers that fail to find a commit in it.
+ *
+ * @author KEVIN ZHU
+ */
+class CommitIndex {
+    /** Identifies an index file. */
+    private static final int MAGIC = 0x474c4349;
+    /** Current index format version. */
+    private static final int VERSION = 2;
+    /** Length of a raw SHA-1 id in bytes. */
+    private static final int RAW_LENGTH = UID_LENGTH / 2;
+    /** Bytes taken by the magic number, version and fan-out table. */
+    private static final int HEADER_LENGTH = 8 + 256 * 4;
+    /** Number of ids in the tail at which flush() sorts them in. */
+    static final int TAIL_LIMIT = 1024;
+
+    /** The index file. */
+    private final File file;
+    /** The objects of the repository. */
+    private final ObjectStore objects;
+    /** The raw ids added since the last flush(). */
+    private final List<byte[]> pending = new ArrayList<>();
+
+    /** An index stored in FILE describing the commits among OBJECTS. */
+    CommitIndex(File file, ObjectStore objects) {
+        this.file = file;
+        this.objects = objects;
+    }
+
+    /** Returns the full ids of at most LIMIT commits whose ids start
+     *  with the hexadecimal PREFIX, in ascending order. */
+    List<String> lookup(String prefix, int limit) {
+        String lower = prefix.toLowerCase();
+        if (lower.length() > UID_LENGTH || !isHex(lower)) {
+            return new ArrayList<>();
+        }
+        ensureExists();
+        TreeSet<String> result = new TreeSet<>(lookupSorted(lower, limit));
+        for (byte[] raw : tail()) {
+            String id = toHex(raw);
+            if (id.startsWith(lower)) {
+                result.add(id);
+            }
+        }
+        List<String> ids = new ArrayList<>(result);
+        return ids.size() > limit ? ids.subList(0, limit) : ids;
+    }
+
+    /** Returns the full ids of at most LIMIT commits among the sorted ids
+     *  of the index file that start with LOWER, in ascending order. */
+    private List<String> lookupSorted(String lower, int limit) {
+        List<String> result = new ArrayList<>();
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            int[] fanout = readHeader(in);
+            int lo, hi;
+            if (lower.length() >= 2) {
+                int first = Integer.parseInt(lower.substring(0, 2), 16);
+                lo = first == 0 ? 0 : fanout[first - 1];
+                hi = fanout[first];
+            } else {
+                lo = 0;
+                hi = fanout[255];
+            }
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (readId(in, mid).compareTo(lower) < 0) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            for (int i = lo; i < fanout[255] && result.size() < limit; i += 1) {
+                String id = readId(in, i);
+                if (!id.startsWith(lower)) {
+                    break;
+                }
+                result.add(id);
+            }
+            return result;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Records the commit with full id ID, to be written by flush(). */
+    synchronized void add(String id) {
+        pending.add(toRaw(id));
+    }
+
+    /** Appends the ids added since the last call to the tail of the index
+     *  file, and sorts the tail in if it has grown to TAIL_LIMIT ids.  Must
+     *  be called holding the repository lock, after the new commits have
+     *  been written to the object store. */
+    synchronized void flush() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        if (!isValid()) {
+            rebuild();
+            pending.clear();
+            return;
+        }
+        try (RandomAccessFile out = new RandomAccessFile(file, "rw")) {
+            int sorted = readHeader(out)[255];
+            long end = HEADER_LENGTH + (long) sorted * RAW_LENGTH;
+            long tailLength = (out.length() - end) / RAW_LENGTH * RAW_LENGTH;
+            long tailCount = tailLength / RAW_LENGTH + pending.size();
+            out.setLength(end + tailLength);
+            out.seek(end + tailLength);
+            for (byte[] raw : pending) {
+                out.write(raw);
+            }
+            pending.clear();
+            if (tailCount < TAIL_LIMIT) {
+                return;
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        List<byte[]> ids = readAll();
+        ids.sort(CommitIndex::compareRaw);
+        List<byte[]> unique = new ArrayList<>(ids.size());
+        for (byte[] raw : ids) {
+            if (unique.isEmpty() || compareRaw(unique.get(unique.size() - 1), raw) != 0) {
+                unique.add(raw);
+            }
+        }
+        write(unique);
+    }
+
+    /** Recreates the index from the commits in the object store.  Ids
+     *  added but not yet flushed are kept for flush(). */
+    synchronized void rebuild() {
+        List<byte[]> ids = new ArrayList<>();
+        for (String id : objects.list(ObjectStore.COMMIT)) {
+            ids.add(toRaw(id));
+        }
+        write(ids);
+    }
+
+    /** Rebuilds the index if its file is missing or unreadable. */
+    private void ensureExists() {
+        if (!isValid()) {
+            rebuild();
+        }
+    }
+
+    /** Returns true iff the index file exists and has a good header. */
+    private boolean isValid() {
+        if (!file.isFile()) {
+            return false;
+        }
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            readHeader(in);
+            return true;
+        } catch (IOException | IllegalArgumentException excp) {
+            return false;
+        }
+    }
+
+    /** Returns the ids in the tail of the index file, followed by those
+     *  not yet flushed. */
+    private synchronized List<byte[]> tail() {
+        List<byte[]> result = new ArrayList<>();
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            long end = HEADER_LENGTH + (long) readHeader(in)[255] * RAW_LENGTH;
+            byte[] contents = new byte[(int) Math.max(0, in.length() - end)];
+            in.seek(end);
+            in.readFully(contents);
+            for (int pos = 0; pos + RAW_LENGTH <= contents.length; pos += RAW_LENGTH) {
+                result.add(Arrays.copyOfRange(contents, pos, pos + RAW_LENGTH));
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        result.addAll(pending);
+        return result;
+    }
+
+    /** Returns every id in the index file, the sorted ids followed by
+     *  those in the tail. */
+    private List<byte[]> readAll() {
+        byte[] contents = readContents(file);
+        ByteBuffer buf = ByteBuffer.wrap(contents);
+        if (contents.length < HEADER_LENGTH || buf.getInt() != MAGIC
+                || buf.getInt() != VERSION) {
+            rebuild();
+            return readAll();
+        }
+        List<byte[]> ids = new ArrayList<>();
+        for (int pos = HEADER_LENGTH; pos + RAW_LENGTH <= contents.length;
+             pos += RAW_LENGTH) {
+            ids.add(Arrays.copyOfRange(contents, pos, pos + RAW_LENGTH));
+        }
+        return ids;
+    }
+
+    /** Writes the sorted IDS, with an empty tail, to the index file,
+     *  replacing it atomically. */
+    private void write(List<byte[]> ids) {
+        ByteBuffer buf = ByteBuffer.allocate(HEADER_LENGTH
+                + ids.size() * RAW_LENGTH);
+        buf.putInt(MAGIC);
+        buf.putInt(VERSION);
+        int[] counts = new int[256];
+        for (byte[] id : ids) {
+            counts[id[0] & 0xff] += 1;
+        }
+        int total = 0;
+        for (int count : counts) {
+            total += count;
+            buf.putInt(total);
+        }
+        for (byte[] id : ids) {
+            buf.put(id);
+        }
+        File temp = new File(file.getPath() + ".tmp");
+        writeContents(temp, buf.array());
+        if (!temp.renameTo(file)) {
+            file.delete();
+            temp.renameTo(file);
+        }
+    }
+
+    /** Reads and checks the header of IN, returning its fan-out table. */
+    private static int[] readHeader(RandomAccessFile in) throws IOException {
+        if (in.length() < HEADER_LENGTH || in.readInt() != MAGIC
+                || in.readInt() != VERSION) {
+            throw new IllegalArgumentException("bad commit index");
+        }
+        int[] fanout = new int[256];
+        for (int i = 0; i < fanout.length; i += 1) {
+            fanout[i] = in.readInt();
+        }
+        return fanout;
+    }
+
+    /** Returns the hexadecimal id at position POS of IN. */
+    private static String readId(RandomAccessFile in, int pos)
+        throws IOException {
+        byte[] raw = new byte[RAW_LENGTH];
+        in.seek(HEADER_LENGTH + (long) pos * RAW_LENGTH);
+        in.readFully(raw);
+        return toHex(raw);
+    }
+
+    /** Compares raw ids A and B as unsigned byte strings. */
+    private static int compareRaw(byte[] a, byte[] b) {
+        for (int i = 0; i < RAW_LENGTH; i += 1) {
+            int cmp = (a[i] & 0xff) - (b[i] & 0xff);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return 0;
+    }
+
+    /** Returns true iff S consists only of lower-case hexadecimal digits. */
+    private static boolean isHex(String s) {
+        for (int i = 0; i < s.length(); i += 1) {
+            if (Character.digit(s.charAt(i), 16) < 0
+                    || Character.isUpperCase(s.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Returns the 20 raw bytes of the hexadecimal ID. */
+    static byte[] toRaw(String id) {
+        byte[] raw = new byte[RAW_LENGTH];
+        for (int i = 0; i < RAW_LENGTH; i += 1) {
+            raw[i] = (byte) Integer.parseInt(id.substring(2 * i, 2 * i + 2), 16);
+        }
+        return raw;
+    }
+
+    /** Returns the hexadecimal form of the raw id RAW. */
+    static String toHex(byte[] raw) {
+        StringBuilder result = new StringBuilder(UID_LENGTH);
+        for (byte b : raw) {
+            result.append(Character.forDigit((b >> 4) & 0xf, 16));
+            result.append(Character.forDigit(b & 0xf, 16));
+        }
+        return result.toString();
+    }
+}
@@ -0,0 +1,272 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import static gitlet.Utils.*;
+
+/**
+ * A record of every commit in a repository in the order in which they
+ * were made, so that global-log can list them without reading, or even
+ * listing, the commit objects.
+ *
+ * The journal file holds a header (magic number and version) followed by
+ * one fixed-size record per commit,
+ *
+ *     byte[20] raw commit id
+ *     long     commit time, in milliseconds
+ *     byte[20] raw id of the first parent, or zeros
+ *     byte[20] raw id of the merge parent, or zeros
+ *     long     offset of the message in the message file
+ *     int      length of the message, in bytes
+ *     byte     1 iff the commit is a legacy commit, whose displayed time
+ *              must be read from its object
+ *
+ * and the message file holds the UTF-8 messages, one after another in
+ * the same order.  Both are only appended to: a message is written
+ * before the record that points to it, and the records of a command's
+ * new commits are appended by flush(), holding the repository lock,
+ * just before their objects are written, so an interrupted commit can
+ * leave a stray message or a record of a commit that does not exist,
+ * which scan() skips, but never a commit missing from the journal.  A
+ * partial record at the end of the journal is ignored, and cut off
+ * before the next append.  The journal is rebuilt from the object
+ * store, in order of commit time, if it is missing.
+ *
+ * @author KEVIN ZHU
+ */
+class CommitJournal {
+    /** Identifies a journal file. */
+    private static final int MAGIC = 0x474c434a;
+    /** Current journal format version. */
+    private static final int VERSION = 1;
+    /** Length of a raw SHA-1 id in bytes. */
+    private static final int RAW_LENGTH = UID_LENGTH / 2;
+    /** Bytes taken by the magic number and version. */
+    private static final int HEADER_LENGTH = 8;
+    /** Bytes taken by one record. */
+    private static final int RECORD_LENGTH = 3 * RAW_LENGTH + 8 + 8 + 4 + 1;
+    /** Raw id recorded for a missing parent. */
+    private static final byte[] NO_ID = new byte[RAW_LENGTH];
+
+    /** The journal file. */
+    private final File file;
+    /** The message file. */
+    private final File messages;
+    /** The objects of the repository. */
+    private final ObjectStore objects;
+    /** The commits added since the last flush(). */
+    private final List<Commit> pending = new ArrayList<>();
+
+    /** A journal stored in FILE and MESSAGES describing the commits among
+     *  OBJECTS. */
+    CommitJournal(File file, File messages, ObjectStore objects) {
+        this.file = file;
+        this.messages = messages;
+        this.objects = objects;
+    }
+
+    /** Records COMMIT, to be written by flush(). */
+    synchronized void add(Commit commit) {
+        pending.add(commit);
+    }
+
+    /** Appends the commits added since the last call to the journal, in
+     *  the order they were added.  Must be called holding the repository
+     *  lock, before the new commits are written to the object store. */
+    synchronized void flush() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        if (!valid()) {
+            rebuild();
+        }
+        try (RandomAccessFile text = new RandomAccessFile(messages, "rw");
+             RandomAccessFile out = new RandomAccessFile(file, "rw")) {
+            long length = out.length()
+                - (out.length() - HEADER_LENGTH) % RECORD_LENGTH;
+            out.setLength(length);
+            out.seek(length);
+            text.seek(text.length());
+            for (Commit commit : pending) {
+                byte[] message = commit.getMessage().getBytes(StandardCharsets.UTF_8);
+                long offset = text.getFilePointer();
+                text.write(message);
+                out.write(record(commit, commit.getTimestamp(), offset,
+                                 message.length));
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        pending.clear();
+    }
+
+    /** Passes each of the first LIMIT existing commits in the journal to
+     *  ACTION, oldest first, reading the journal as it goes. */
+    void scan(long limit, Consumer<Entry> action) {
+        if (!valid()) {
+            rebuild();
+        }
+        try (DataInputStream in = new DataInputStream(
+                 new BufferedInputStream(new FileInputStream(file)));
+             DataInputStream text = new DataInputStream(
+                 new BufferedInputStream(new FileInputStream(messages)))) {
+            in.skipBytes(HEADER_LENGTH);
+            long position = 0;
+            long count = 0;
+            byte[] raw = new byte[RAW_LENGTH];
+            while (count < limit) {
+                Entry entry = new Entry();
+                try {
+                    in.readFully(raw);
+                    entry.id = CommitIndex.toHex(raw);
+                    entry.time = in.readLong();
+                    entry.parent = readId(in, raw);
+                    entry.mergeParent = readId(in, raw);
+                    long offset = in.readLong();
+                    byte[] message = new byte[in.readInt()];
+                    entry.legacy = in.readBoolean();
+                    while (position < offset) {
+                        int skipped = text.skipBytes((int) Math.min(offset - position,
+                                                                    Integer.MAX_VALUE));
+                        if (skipped == 0) {
+                            throw new EOFException();
+                        }
+                        position += skipped;
+                    }
+                    text.readFully(message);
+                    position += message.length;
+                    entry.message = new String(message, StandardCharsets.UTF_8);
+                } catch (EOFException excp) {
+                    break;
+                }
+                if (objects.contains(ObjectStore.COMMIT, entry.id)) {
+                    action.accept(entry);
+                    count += 1;
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Recreates the journal from the commits in the object store, in order
+     *  of their times (see Commit.orderTimes), and parents before children
+     *  among commits with the same time. */
+    void rebuild() {
+        Map<String, Commit> byId = new HashMap<>();
+        for (String id : objects.list(ObjectStore.COMMIT)) {
+            byId.put(id, Commit.read(id, objects.read(ObjectStore.COMMIT, id)));
+        }
+        Map<String, Long> times = Commit.orderTimes(byId);
+        List<String> ids = new ArrayList<>(times.keySet());
+        ids.sort(Comparator.comparingLong(times::get));
+        File temp = new File(file.getPath() + ".tmp");
+        File tempMessages = new File(messages.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(
+                 new BufferedOutputStream(new FileOutputStream(temp)));
+             BufferedOutputStream text = new BufferedOutputStream(
+                 new FileOutputStream(tempMessages))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            long offset = 0;
+            for (String id : ids) {
+                Commit commit = byId.get(id);
+                byte[] message = commit.getMessage().getBytes(StandardCharsets.UTF_8);
+                out.write(record(commit, times.get(id), offset, message.length));
+                text.write(message);
+                offset += message.length;
+            }
+        } catch (IOException excp) {
+            temp.delete();
+            tempMessages.delete();
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        try {
+            Files.move(tempMessages.toPath(), messages.toPath(),
+                       StandardCopyOption.ATOMIC_MOVE,
+                       StandardCopyOption.REPLACE_EXISTING);
+            Files.move(temp.toPath(), file.toPath(),
+                       StandardCopyOption.ATOMIC_MOVE,
+                       StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException excp) {
+            temp.delete();
+            tempMessages.delete();
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns true iff the journal and message files exist and the
+     *  journal has the right header. */
+    private boolean valid() {
+        if (!file.isFile() || !messages.isFile()) {
+            return false;
+        }
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            return in.readInt() == MAGIC && in.readInt() == VERSION;
+        } catch (IOException excp) {
+            return false;
+        }
+    }
+
+    /** Returns the record of COMMIT, ordered by TIME, whose message of
+     *  LENGTH bytes is at OFFSET in the message file. */
+    private static byte[] record(Commit commit, long time, long offset, int length) {
+        ByteBuffer result = ByteBuffer.allocate(RECORD_LENGTH);
+        result.put(CommitIndex.toRaw(commit.getId()));
+        result.putLong(time);
+        result.put(commit.getParent() == null ? NO_ID : CommitIndex.toRaw(commit.getParent()));
+        result.put(commit.getMergeParent() == null
+                   ? NO_ID : CommitIndex.toRaw(commit.getMergeParent()));
+        result.putLong(offset);
+        result.putInt(length);
+        result.put((byte) (commit.isLegacy() ? 1 : 0));
+        return result.array();
+    }
+
+    /** Reads a raw id from IN into RAW, returning it in hexadecimal, or
+     *  null if it is all zeros. */
+    private static String readId(DataInputStream in, byte[] raw) throws IOException {
+        in.readFully(raw);
+        for (byte b : raw) {
+            if (b != 0) {
+                return CommitIndex.toHex(raw);
+            }
+        }
+        return null;
+    }
+
+    /** One commit as recorded in the journal. */
+    static class Entry {
+        /** The commit id. */
+        String id;
+        /** The commit time, in milliseconds since the epoch. */
+        long time;
+        /** The id of the first parent, or null. */
+        String parent;
+        /** The id of the merge parent, or null. */
+        String mergeParent;
+        /** The commit message. */
+        String message;
+        /** True iff the commit is a legacy commit. */
+        boolean legacy;
+    }
+}
@@ -0,0 +1,88 @@
+package gitlet;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+
+/**
+ * Per-repository settings, kept as KEY=VALUE lines in .gitlet/config.
+ * Settings that are absent (or the whole file, if missing) take their
+ * default values.  Recognized keys:
+ *
+ *     compression.level   Deflate level (0-9) for new blobs; 0 stores
+ *                         blobs uncompressed.  Default 6.
+ *     core.fsync          true to sync new objects and refs to the disk
+ *                         at the end of each command, and new packs
+ *                         before repack or gc deletes what they replace,
+ *                         false to leave that to the operating system.
+ *                         Default true.
+ *
+ * @author KEVIN ZHU
+ */
+class Config {
+    /** Key of the blob compression level. */
+    static final String COMPRESSION_LEVEL = "compression.level";
+    /** Key of the setting that makes writes durable. */
+    static final String FSYNC = "core.fsync";
+
+    /** The configuration file. */
+    private final File file;
+    /** Settings read from FILE, or null until first needed. */
+    private Properties settings;
+
+    /** The settings stored in FILE. */
+    Config(File file) {
+        this.file = file;
+    }
+
+    /** Returns the integer value of KEY, or DEFAULTVALUE if it is unset.
+     *  Throws IllegalArgumentException if the value is not an integer. */
+    int getInt(String key, int defaultValue) {
+        String value = get(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException excp) {
+            throw new IllegalArgumentException("bad value for " + key
+                                               + ": " + value);
+        }
+    }
+
+    /** Returns the boolean value of KEY, or DEFAULTVALUE if it is unset.
+     *  Throws IllegalArgumentException if the value is neither "true" nor
+     *  "false". */
+    boolean getBoolean(String key, boolean defaultValue) {
+        String value = get(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        if (value.trim().equalsIgnoreCase("true")) {
+            return true;
+        } else if (value.trim().equalsIgnoreCase("false")) {
+            return false;
+        }
+        throw new IllegalArgumentException("bad value for " + key
+                                           + ": " + value);
+    }
+
+    /** Returns the value of KEY, or null if it is unset.  Synchronized,
+     *  since blobs are written, and so settings first read, by several
+     *  threads at once. */
+    synchronized String get(String key) {
+        if (settings == null) {
+            settings = new Properties();
+            if (file.isFile()) {
+                try (InputStream in = new FileInputStream(file)) {
+                    settings.load(in);
+                } catch (IOException excp) {
+                    throw new IllegalArgumentException(excp.getMessage());
+                }
+            }
+        }
+        return settings.getProperty(key);
+    }
+}
@@ -0,0 +1,235 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.SecureRandom;
+
+import static gitlet.Utils.*;
+
+/**
+ * A server that runs gitlet commands for one repository in a single
+ * long-lived JVM, so that scripts running many commands do not pay for
+ * starting a JVM, and reloading the repository, for each of them.
+ * "gitlet daemon" starts it in the repository's working directory; it
+ * listens on a loopback port and records that port, with a random token
+ * that clients must present, in .gitlet/daemon, readable only by its
+ * owner.  "gitlet daemon stop" stops it.  bin/gitlet is the client.
+ *
+ * A request is a sequence of NUL-terminated UTF-8 strings: the token,
+ * the client's working directory, the number of arguments, and the
+ * arguments themselves.  The response is everything the command printed,
+ * standard output and standard error together, then a NUL byte, then the
+ * exit status in decimal and a newline.  A status of "-" instead means
+ * that the daemon will not run the command (because the client is in
+ * another directory, or the command is init or daemon), and the client
+ * should run it itself.
+ *
+ * Requests are served one at a time, each with a new Repository, so
+ * that branches, the staging area and the indexes are read afresh and
+ * changes made by other processes are never missed.  What the
+ * Repositories share are their caches of decoded commits, trees and
+ * blobs: an object never changes once stored, so those stay valid.
+ *
+ * @author KEVIN ZHU
+ */
+class Daemon {
+    /** Longest time, in milliseconds, to wait for a client's request. */
+    private static final int REQUEST_TIMEOUT = 10000;
+    /** Most arguments a request may carry. */
+    private static final int MAX_ARGS = 1 << 20;
+
+    /** The file naming the port and token of the running daemon. */
+    private static final File PORT_FILE = join(Repository.GITLET_DIR, "daemon");
+
+    /** The token clients must present. */
+    private final String token;
+    /** The objects read by previous requests. */
+    private Repository.Caches caches = new Repository.Caches();
+    /** True once a client has asked the daemon to stop. */
+    private boolean stopping;
+
+    /** A daemon whose clients must present TOKEN. */
+    private Daemon(String token) {
+        this.token = token;
+    }
+
+    /** Serves requests for the repository in the current directory until
+     *  asked to stop or until the repository is deleted. */
+    static void serve() {
+        if (running()) {
+            throw error("A daemon is already running.");
+        }
+        byte[] random = new byte[16];
+        new SecureRandom().nextBytes(random);
+        Daemon daemon = new Daemon(CommitIndex.toHex(random));
+        try (ServerSocket server = new ServerSocket()) {
+            server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            daemon.publish(server.getLocalPort());
+            Runtime.getRuntime().addShutdownHook(new Thread(PORT_FILE::delete));
+            System.err.printf("gitlet daemon listening on port %d%n",
+                              server.getLocalPort());
+            while (!daemon.stopping && Repository.GITLET_DIR.isDirectory()) {
+                try (Socket client = server.accept()) {
+                    client.setSoTimeout(REQUEST_TIMEOUT);
+                    daemon.handle(client);
+                } catch (IOException | NumberFormatException excp) {
+                    debug("daemon: bad request: %s", excp.getMessage());
+                }
+            }
+        } catch (IOException excp) {
+            throw error("Cannot start daemon: %s", excp.getMessage());
+        } finally {
+            PORT_FILE.delete();
+        }
+    }
+
+    /** Asks the daemon of the repository in the current directory to
+     *  stop. */
+    static void stop() {
+        if (request(new String[] { "daemon", "stop" }) == null) {
+            throw error("No daemon is running.");
+        }
+    }
+
+    /** Returns true iff a daemon for this repository answers. */
+    private static boolean running() {
+        return request(new String[] { "daemon", "status" }) != null;
+    }
+
+    /** Sends ARGS to the running daemon, returning its response, or null
+     *  if there is no running daemon. */
+    private static String request(String[] args) {
+        if (!PORT_FILE.isFile()) {
+            return null;
+        }
+        String[] fields = readContentsAsString(PORT_FILE).trim().split(" ");
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(),
+                                        Integer.parseInt(fields[0]))) {
+            OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+            writeField(out, fields[1]);
+            writeField(out, Repository.CWD.getPath());
+            writeField(out, Integer.toString(args.length));
+            for (String arg : args) {
+                writeField(out, arg);
+            }
+            out.flush();
+            ByteArrayOutputStream response = new ByteArrayOutputStream();
+            BlobStore.copy(socket.getInputStream(), response);
+            return response.toString(StandardCharsets.UTF_8.name());
+        } catch (IOException | NumberFormatException
+                 | ArrayIndexOutOfBoundsException excp) {
+            return null;
+        }
+    }
+
+    /** Records PORT and the token in the port file, readable only by its
+     *  owner. */
+    private void publish(int port) throws IOException {
+        File temp = join(Repository.GITLET_DIR, "daemon.tmp");
+        temp.delete();
+        Files.createFile(temp.toPath());
+        try {
+            Files.setPosixFilePermissions(temp.toPath(),
+                                          PosixFilePermissions.fromString("rw-------"));
+        } catch (UnsupportedOperationException excp) {
+            temp.setReadable(false, false);
+            temp.setReadable(true, true);
+        }
+        writeContents(temp, port + " " + token + "\n");
+        Files.move(temp.toPath(), PORT_FILE.toPath(),
+                   StandardCopyOption.ATOMIC_MOVE,
+                   StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /** Reads one request from CLIENT, runs it and sends the response. */
+    private void handle(Socket client) throws IOException {
+        InputStream in = new BufferedInputStream(client.getInputStream());
+        OutputStream out = new BufferedOutputStream(client.getOutputStream());
+        if (!token.equals(readField(in))) {
+            return;
+        }
+        File cwd = new File(readField(in));
+        int count = Integer.parseInt(readField(in));
+        if (count < 0 || count > MAX_ARGS) {
+            throw new IOException("too many arguments");
+        }
+        String[] args = new String[count];
+        for (int i = 0; i < args.length; i += 1) {
+            args[i] = readField(in);
+        }
+        String status;
+        if (args.length > 0 && args[0].equals("daemon")) {
+            stopping = args.length == 2 && args[1].equals("stop");
+            status = stopping || args.length == 2 && args[1].equals("status")
+                ? "0" : "-";
+        } else if (args.length > 0 && args[0].equals("init")
+                   || !cwd.getCanonicalFile().equals(Repository.CWD.getCanonicalFile())) {
+            status = "-";
+        } else {
+            status = Integer.toString(run(args, out));
+        }
+        out.write(0);
+        out.write((status + "\n").getBytes(StandardCharsets.UTF_8));
+        out.flush();
+    }
+
+    /** Runs the command in ARGS, as Main would, sending what it prints to
+     *  OUT, and returns its exit status. */
+    private int run(String[] args, OutputStream out) {
+        PrintStream stdout = System.out;
+        PrintStream stderr = System.err;
+        PrintStream captured = new PrintStream(out, true);
+        System.setOut(captured);
+        System.setErr(captured);
+        int status = 0;
+        try {
+            Main.run(new Repository(caches), args);
+        } catch (GitletException excp) {
+            if (excp.getMessage() != null) {
+                System.out.println(excp.getMessage());
+            }
+        } catch (RuntimeException excp) {
+            excp.printStackTrace();
+            caches = new Repository.Caches();
+            status = 1;
+        } finally {
+            System.out.flush();
+            System.setOut(stdout);
+            System.setErr(stderr);
+        }
+        return status;
+    }
+
+    /** Writes S to OUT as a NUL-terminated field. */
+    private static void writeField(OutputStream out, String s) throws IOException {
+        out.write(s.getBytes(StandardCharsets.UTF_8));
+        out.write(0);
+    }
+
+    /** Returns the next NUL-terminated field of IN. */
+    private static String readField(InputStream in) throws IOException {
+        ByteArrayOutputStream field = new ByteArrayOutputStream();
+        int c;
+        while ((c = in.read()) != 0) {
+            if (c < 0) {
+                throw new IOException("truncated request");
+            }
+            field.write(c);
+        }
+        return field.toString(StandardCharsets.UTF_8.name());
+    }
+}
@@ -0,0 +1,175 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Delta encoding of one byte sequence (the target) against another (the
+ * base).  A delta is a stream of instructions,
+ *
+ *     0, N, BYTES       insert the N bytes that follow
+ *     1, OFFSET, N      copy N bytes of the base starting at OFFSET
+ *
+ * preceded by the lengths of the base and of the target.  All numbers
+ * are unsigned variable-length integers, seven bits per byte with the
+ * high bit set on every byte but the last.
+ *
+ * encode() finds copies by indexing every BLOCK-byte block of the base
+ * by a hash and sliding a rolling hash of the same width along the
+ * target, extending each match as far as it goes in both directions.
+ *
+ * @author KEVIN ZHU
+ */
+class Delta {
+    /** Instruction that inserts literal bytes. */
+    private static final int INSERT = 0;
+    /** Instruction that copies bytes of the base. */
+    private static final int COPY = 1;
+    /** Width of the blocks that are matched between base and target. */
+    private static final int BLOCK = 16;
+    /** Multiplier of the rolling hash. */
+    private static final int PRIME = 31;
+
+    /** Returns a delta that turns BASE into TARGET. */
+    static byte[] encode(byte[] base, byte[] target) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeNumber(out, base.length);
+        writeNumber(out, target.length);
+        Map<Integer, Integer> blocks = new HashMap<>();
+        for (int i = 0; i + BLOCK <= base.length; i += BLOCK) {
+            blocks.putIfAbsent(hash(base, i), i);
+        }
+        int power = 1;
+        for (int i = 1; i < BLOCK; i += 1) {
+            power *= PRIME;
+        }
+
+        int literal = 0;
+        int pos = 0;
+        int h = target.length >= BLOCK ? hash(target, 0) : 0;
+        while (pos + BLOCK <= target.length) {
+            Integer start = blocks.get(h);
+            if (start != null && matches(base, start, target, pos, BLOCK)) {
+                int from = start;
+                int to = pos;
+                while (from > 0 && to > literal
+                       && base[from - 1] == target[to - 1]) {
+                    from -= 1;
+                    to -= 1;
+                }
+                int length = pos - to + BLOCK;
+                while (from + length < base.length
+                       && to + length < target.length
+                       && base[from + length] == target[to + length]) {
+                    length += 1;
+                }
+                insert(out, target, literal, to);
+                out.write(COPY);
+                writeNumber(out, from);
+                writeNumber(out, length);
+                pos = to + length;
+                literal = pos;
+                if (pos + BLOCK <= target.length) {
+                    h = hash(target, pos);
+                }
+            } else {
+                if (pos + BLOCK < target.length) {
+                    h = (h - target[pos] * power) * PRIME + target[pos + BLOCK];
+                }
+                pos += 1;
+            }
+        }
+        insert(out, target, literal, target.length);
+        return out.toByteArray();
+    }
+
+    /** Returns the target of DELTA, applied to BASE.  Throws
+     *  IllegalArgumentException if DELTA was not made against BASE. */
+    static byte[] apply(byte[] base, byte[] delta) {
+        int[] pos = { 0 };
+        if (readNumber(delta, pos) != base.length) {
+            throw new IllegalArgumentException("delta does not match base");
+        }
+        byte[] result = new byte[(int) readNumber(delta, pos)];
+        int filled = 0;
+        while (pos[0] < delta.length) {
+            int op = delta[pos[0]];
+            pos[0] += 1;
+            if (op == INSERT) {
+                int length = (int) readNumber(delta, pos);
+                System.arraycopy(delta, pos[0], result, filled, length);
+                pos[0] += length;
+                filled += length;
+            } else if (op == COPY) {
+                int offset = (int) readNumber(delta, pos);
+                int length = (int) readNumber(delta, pos);
+                System.arraycopy(base, offset, result, filled, length);
+                filled += length;
+            } else {
+                throw new IllegalArgumentException("corrupt delta");
+            }
+        }
+        if (filled != result.length) {
+            throw new IllegalArgumentException("corrupt delta");
+        }
+        return result;
+    }
+
+    /** Writes an instruction inserting TARGET[FROM..TO) to OUT, unless
+     *  that range is empty. */
+    private static void insert(ByteArrayOutputStream out, byte[] target,
+                               int from, int to) {
+        if (from < to) {
+            out.write(INSERT);
+            writeNumber(out, to - from);
+            out.write(target, from, to - from);
+        }
+    }
+
+    /** Returns true iff the LENGTH bytes of A at AFROM equal those of B at
+     *  BFROM. */
+    private static boolean matches(byte[] a, int aFrom, byte[] b, int bFrom,
+                                   int length) {
+        for (int i = 0; i < length; i += 1) {
+            if (a[aFrom + i] != b[bFrom + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Returns the rolling hash of the BLOCK bytes of DATA at START. */
+    private static int hash(byte[] data, int start) {
+        int h = 0;
+        for (int i = start; i < start + BLOCK; i += 1) {
+            h = h * PRIME + data[i];
+        }
+        return h;
+    }
+
+    /** Writes the non-negative N to OUT as a variable-length integer. */
+    private static void writeNumber(ByteArrayOutputStream out, long n) {
+        while (n >= 0x80) {
+            out.write((int) (n & 0x7f) | 0x80);
+            n >>>= 7;
+        }
+        out.write((int) n);
+    }
+
+    /** Returns the variable-length integer in DATA at POS[0], advancing
+     *  POS[0] past it. */
+    private static long readNumber(byte[] data, int[] pos) {
+        long result = 0;
+        int shift = 0;
+        while (true) {
+            int b = data[pos[0]] & 0xff;
+            pos[0] += 1;
+            result |= (long) (b & 0x7f) << shift;
+            if (b < 0x80) {
+                return result;
+            }
+            shift += 7;
+        }
+    }
+}
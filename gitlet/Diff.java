@@ -0,0 +1,437 @@
+package gitlet;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Line-by-line comparison of two versions of a file, printed as a
+ * unified diff with CONTEXT lines of context around each change.
+ *
+ * Each line (with its terminator) is first replaced by a small integer,
+ * the same for equal lines, so that lines are compared by a single int
+ * comparison.  Lines that occur in only one of the versions cannot be
+ * part of any common subsequence; they are marked as changed at once and
+ * left out of the search, which keeps unrelated files cheap to compare.
+ * The remaining lines are compared by Myers' O(ND) algorithm in its
+ * linear-space form: find the middle snake of an optimal edit script by
+ * searching forward from the start and backward from the end at once,
+ * then recur on the pieces on either side of it, after trimming their
+ * common prefixes and suffixes.  A search that goes on for more than
+ * about the square root of the number of lines (and at least COST_LIMIT
+ * edits) stops, and splits the ranges at the point furthest from either
+ * end that it has reached instead, which keeps very different files from
+ * taking time quadratic in their length at the price of an edit script
+ * that may be slightly longer than the shortest.
+ *
+ * @author KEVIN ZHU
+ */
+class Diff {
+    /** Lines of unchanged context printed around each change. */
+    static final int CONTEXT = 3;
+    /** Bytes examined when deciding whether contents are binary. */
+    private static final int BINARY_CHECK = 8000;
+    /** Fewest edits searched for the middle snake before giving up on a
+     *  shortest edit script. */
+    private static final int COST_LIMIT = 256;
+
+    /** The lines of the old version, as integers. */
+    private final int[] a;
+    /** The lines of the new version, as integers. */
+    private final int[] b;
+    /** Marks the lines of A that are deleted. */
+    private final boolean[] deleted;
+    /** Marks the lines of B that are inserted. */
+    private final boolean[] inserted;
+    /** Furthest reaching paths of the forward search, by diagonal. */
+    private int[] forward;
+    /** Furthest reaching paths of the backward search, by diagonal. */
+    private int[] backward;
+    /** Index of diagonal 0 in FORWARD and BACKWARD. */
+    private int offset;
+    /** Edits searched for a middle snake before settling for less. */
+    private int maxCost;
+
+    /** A comparison of the lines A with the lines B. */
+    private Diff(int[] a, int[] b) {
+        this.a = a;
+        this.b = b;
+        deleted = new boolean[a.length];
+        inserted = new boolean[b.length];
+    }
+
+    /** Returns a list of the changed regions between the lines A and B,
+     *  each an array {first line of A, end of A's lines, first line of B,
+     *  end of B's lines}, in order. */
+    static List<int[]> compare(int[] a, int[] b) {
+        Diff diff = new Diff(a, b);
+        diff.run();
+        return diff.regions();
+    }
+
+    /** Writes to OUT a unified diff from OLDCONTENTS, named OLDNAME, to
+     *  NEWCONTENTS, named NEWNAME.  A null name stands for a file that
+     *  does not exist, printed as /dev/null.  Prints nothing if the
+     *  contents are equal. */
+    static void unified(String oldName, byte[] oldContents,
+                        String newName, byte[] newContents,
+                        OutputStream out) throws IOException {
+        if (Arrays.equals(oldContents, newContents)) {
+            return;
+        }
+        String name = oldName != null ? oldName : newName;
+        print(out, "diff --gitlet a/" + name + " b/" + name + "\n");
+        if (isBinary(oldContents) || isBinary(newContents)) {
+            print(out, "Binary files " + label("a/", oldName) + " and "
+                  + label("b/", newName) + " differ\n");
+            return;
+        }
+        print(out, "--- " + label("a/", oldName) + "\n");
+        print(out, "+++ " + label("b/", newName) + "\n");
+        Map<Line, Integer> numbers = new HashMap<>();
+        int[] oldStarts = lineStarts(oldContents);
+        int[] newStarts = lineStarts(newContents);
+        int[] a = number(oldContents, oldStarts, numbers);
+        int[] b = number(newContents, newStarts, numbers);
+        List<int[]> regions = compare(a, b);
+        int first = 0;
+        while (first < regions.size()) {
+            int last = first;
+            while (last + 1 < regions.size()
+                   && regions.get(last + 1)[0] - regions.get(last)[1]
+                   <= 2 * CONTEXT) {
+                last += 1;
+            }
+            int aStart = Math.max(0, regions.get(first)[0] - CONTEXT);
+            int aEnd = Math.min(a.length, regions.get(last)[1] + CONTEXT);
+            int bStart = regions.get(first)[2] - (regions.get(first)[0] - aStart);
+            int bEnd = regions.get(last)[3] + (aEnd - regions.get(last)[1]);
+            print(out, "@@ -" + range(aStart, aEnd - aStart) + " +"
+                  + range(bStart, bEnd - bStart) + " @@\n");
+            int i = aStart;
+            for (int r = first; r <= last; r += 1) {
+                int[] region = regions.get(r);
+                for (; i < region[0]; i += 1) {
+                    printLine(out, ' ', oldContents, oldStarts, i);
+                }
+                for (; i < region[1]; i += 1) {
+                    printLine(out, '-', oldContents, oldStarts, i);
+                }
+                for (int j = region[2]; j < region[3]; j += 1) {
+                    printLine(out, '+', newContents, newStarts, j);
+                }
+            }
+            for (; i < aEnd; i += 1) {
+                printLine(out, ' ', oldContents, oldStarts, i);
+            }
+            first = last + 1;
+        }
+    }
+
+    /** Computes DELETED and INSERTED. */
+    private void run() {
+        int max = 0;
+        for (int line : a) {
+            max = Math.max(max, line);
+        }
+        for (int line : b) {
+            max = Math.max(max, line);
+        }
+        int[] aCounts = new int[max + 1];
+        int[] bCounts = new int[aCounts.length];
+        for (int line : a) {
+            aCounts[line] += 1;
+        }
+        for (int line : b) {
+            bCounts[line] += 1;
+        }
+        int[] aKept = keep(a, bCounts, deleted);
+        int[] bKept = keep(b, aCounts, inserted);
+        Diff kept = new Diff(project(a, aKept), project(b, bKept));
+        int size = kept.a.length + kept.b.length + 1;
+        kept.offset = size + 1;
+        kept.forward = new int[2 * size + 3];
+        kept.backward = new int[2 * size + 3];
+        kept.maxCost = Math.max(COST_LIMIT, (int) Math.sqrt(size));
+        kept.compareSeq(0, kept.a.length, 0, kept.b.length);
+        for (int i = 0; i < aKept.length; i += 1) {
+            deleted[aKept[i]] = kept.deleted[i];
+        }
+        for (int j = 0; j < bKept.length; j += 1) {
+            inserted[bKept[j]] = kept.inserted[j];
+        }
+    }
+
+    /** Returns the positions of the LINES that occur at least once
+     *  according to OTHERCOUNTS, marking the others in CHANGED. */
+    private static int[] keep(int[] lines, int[] otherCounts, boolean[] changed) {
+        int[] result = new int[lines.length];
+        int n = 0;
+        for (int i = 0; i < lines.length; i += 1) {
+            if (otherCounts[lines[i]] > 0) {
+                result[n] = i;
+                n += 1;
+            } else {
+                changed[i] = true;
+            }
+        }
+        return Arrays.copyOf(result, n);
+    }
+
+    /** Returns the LINES at the given POSITIONS. */
+    private static int[] project(int[] lines, int[] positions) {
+        int[] result = new int[positions.length];
+        for (int i = 0; i < positions.length; i += 1) {
+            result[i] = lines[positions[i]];
+        }
+        return result;
+    }
+
+    /** Marks a shortest edit script from A[XOFF..XLIM) to B[YOFF..YLIM)
+     *  in DELETED and INSERTED. */
+    private void compareSeq(int xoff, int xlim, int yoff, int ylim) {
+        while (xoff < xlim && yoff < ylim && a[xoff] == b[yoff]) {
+            xoff += 1;
+            yoff += 1;
+        }
+        while (xoff < xlim && yoff < ylim && a[xlim - 1] == b[ylim - 1]) {
+            xlim -= 1;
+            ylim -= 1;
+        }
+        if (xoff == xlim) {
+            Arrays.fill(inserted, yoff, ylim, true);
+        } else if (yoff == ylim) {
+            Arrays.fill(deleted, xoff, xlim, true);
+        } else {
+            int[] mid = middleSnake(xoff, xlim, yoff, ylim);
+            compareSeq(xoff, mid[0], yoff, mid[1]);
+            compareSeq(mid[0], xlim, mid[1], ylim);
+        }
+    }
+
+    /** Returns a point {x, y} through which a shortest edit script from
+     *  A[XOFF..XLIM) to B[YOFF..YLIM) passes, other than either end.  The
+     *  first and last lines of the two ranges must differ. */
+    private int[] middleSnake(int xoff, int xlim, int yoff, int ylim) {
+        int n = xlim - xoff;
+        int m = ylim - yoff;
+        int delta = n - m;
+        boolean odd = (delta & 1) != 0;
+        forward[offset + 1] = 0;
+        backward[offset + 1] = 0;
+        for (int d = 0; d <= (n + m + 1) / 2; d += 1) {
+            for (int k = -d; k <= d; k += 2) {
+                int x = k == -d || k != d
+                    && forward[offset + k - 1] < forward[offset + k + 1]
+                    ? forward[offset + k + 1] : forward[offset + k - 1] + 1;
+                int y = x - k;
+                while (x < n && y < m && a[xoff + x] == b[yoff + y]) {
+                    x += 1;
+                    y += 1;
+                }
+                forward[offset + k] = x;
+                if (odd && k >= delta - (d - 1) && k <= delta + (d - 1)
+                        && x + backward[offset + delta - k] >= n) {
+                    return new int[] { xoff + x, yoff + y };
+                }
+            }
+            for (int k = -d; k <= d; k += 2) {
+                int x = k == -d || k != d
+                    && backward[offset + k - 1] < backward[offset + k + 1]
+                    ? backward[offset + k + 1] : backward[offset + k - 1] + 1;
+                int y = x - k;
+                while (x < n && y < m
+                       && a[xlim - 1 - x] == b[ylim - 1 - y]) {
+                    x += 1;
+                    y += 1;
+                }
+                backward[offset + k] = x;
+                if (!odd && delta - k >= -d && delta - k <= d
+                        && x + forward[offset + delta - k] >= n) {
+                    return new int[] { xlim - x, ylim - y };
+                }
+            }
+            int[] point = d >= maxCost ? furthest(d, xoff, xlim, yoff, ylim) : null;
+            if (point != null) {
+                return point;
+            }
+        }
+        throw new IllegalStateException("no middle snake");
+    }
+
+    /** Returns the point {x, y} that has got furthest from its end of the
+     *  ranges A[XOFF..XLIM) and B[YOFF..YLIM) after D steps of the forward
+     *  and backward searches of middleSnake, other than either end, or null
+     *  if there is none. */
+    private int[] furthest(int d, int xoff, int xlim, int yoff, int ylim) {
+        int n = xlim - xoff;
+        int m = ylim - yoff;
+        int[] result = null;
+        int best = 0;
+        for (int k = -d; k <= d; k += 2) {
+            for (int[] vector : new int[][] { forward, backward }) {
+                int x = vector[offset + k];
+                int y = x - k;
+                if (x >= 0 && x <= n && y >= 0 && y <= m
+                        && x + y > best && x + y < n + m) {
+                    best = x + y;
+                    result = vector == forward
+                        ? new int[] { xoff + x, yoff + y }
+                        : new int[] { xlim - x, ylim - y };
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Returns the changed regions marked in DELETED and INSERTED. */
+    private List<int[]> regions() {
+        List<int[]> result = new ArrayList<>();
+        int i = 0;
+        int j = 0;
+        while (i < a.length || j < b.length) {
+            if (i < a.length && j < b.length && !deleted[i] && !inserted[j]) {
+                i += 1;
+                j += 1;
+                continue;
+            }
+            int i0 = i;
+            int j0 = j;
+            while (i < a.length && deleted[i]) {
+                i += 1;
+            }
+            while (j < b.length && inserted[j]) {
+                j += 1;
+            }
+            result.add(new int[] { i0, i, j0, j });
+        }
+        return result;
+    }
+
+    /** Returns the offsets at which the lines of CONTENTS start, followed
+     *  by the length of CONTENTS. */
+    private static int[] lineStarts(byte[] contents) {
+        int[] result = new int[16];
+        int n = 0;
+        for (int i = 0; i < contents.length; i += 1) {
+            if (i == 0 || contents[i - 1] == '\n') {
+                if (n + 1 >= result.length) {
+                    result = Arrays.copyOf(result, 2 * result.length);
+                }
+                result[n] = i;
+                n += 1;
+            }
+        }
+        result[n] = contents.length;
+        return Arrays.copyOf(result, n + 1);
+    }
+
+    /** Returns the numbers of the lines of CONTENTS that start at STARTS,
+     *  numbering new lines as they are added to NUMBERS. */
+    private static int[] number(byte[] contents, int[] starts,
+                                Map<Line, Integer> numbers) {
+        int[] result = new int[starts.length - 1];
+        for (int i = 0; i < result.length; i += 1) {
+            Line line = new Line(contents, starts[i], starts[i + 1]);
+            Integer number = numbers.get(line);
+            if (number == null) {
+                number = numbers.size();
+                numbers.put(line, number);
+            }
+            result[i] = number;
+        }
+        return result;
+    }
+
+    /** Writes line I of CONTENTS, whose lines start at STARTS, to OUT after
+     *  PREFIX, noting if it lacks a newline. */
+    private static void printLine(OutputStream out, char prefix, byte[] contents,
+                                  int[] starts, int i) throws IOException {
+        out.write(prefix);
+        out.write(contents, starts[i], starts[i + 1] - starts[i]);
+        if (contents[starts[i + 1] - 1] != '\n') {
+            print(out, "\n\\ No newline at end of file\n");
+        }
+    }
+
+    /** Returns a hunk range starting at line START (from 0) and covering
+     *  COUNT lines, as unified diffs write it. */
+    private static String range(int start, int count) {
+        if (count == 1) {
+            return Integer.toString(start + 1);
+        }
+        return (count == 0 ? start : start + 1) + "," + count;
+    }
+
+    /** Returns PREFIX followed by NAME, or /dev/null if NAME is null. */
+    private static String label(String prefix, String name) {
+        return name == null ? "/dev/null" : prefix + name;
+    }
+
+    /** Returns true iff CONTENTS look binary: they have a NUL byte near
+     *  the start. */
+    private static boolean isBinary(byte[] contents) {
+        for (int i = 0; i < contents.length && i < BINARY_CHECK; i += 1) {
+            if (contents[i] == 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Writes S to OUT in UTF-8. */
+    private static void print(OutputStream out, String s) throws IOException {
+        out.write(s.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /** A line of a file, compared by contents. */
+    private static class Line {
+        /** The contents of the file. */
+        private final byte[] data;
+        /** Start of the line in DATA. */
+        private final int start;
+        /** End of the line in DATA. */
+        private final int end;
+        /** Hash of the line. */
+        private final int hash;
+
+        /** The line DATA[START..END). */
+        Line(byte[] data, int start, int end) {
+            this.data = data;
+            this.start = start;
+            this.end = end;
+            int h = 1;
+            for (int i = start; i < end; i += 1) {
+                h = 31 * h + data[i];
+            }
+            hash = h;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Line)) {
+                return false;
+            }
+            Line other = (Line) obj;
+            if (other.hash != hash || other.end - other.start != end - start) {
+                return false;
+            }
+            for (int i = 0; i < end - start; i += 1) {
+                if (data[start + i] != other.data[other.start + i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
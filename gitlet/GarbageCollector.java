@@ -0,0 +1,156 @@
+package gitlet;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static gitlet.Utils.*;
+
+/**
+ * Deletes the objects of a repository that nothing refers to.  collect()
+ * first marks every object reachable from its roots: the commits at the
+ * tips of the branches, through their first and merge parents, the trees
+ * and blobs of those commits, the blobs in the staging area, and the
+ * delta bases and chunks of any blob marked.  Each of these walks proceeds a level
+ * at a time, reading the objects of a level in parallel.  It then sweeps
+ * the unmarked objects that are older than a cutoff time.
+ *
+ * The cutoff protects objects that a command running at the same time
+ * has just written, or has just found already stored and is about to
+ * refer to (such objects are freshened; see ObjectStore.freshen()), but
+ * that no ref or staging file names yet.  Marking stops with an exception,
+ * and nothing is swept, if a reachable object cannot be read.
+ *
+ * @author KEVIN ZHU
+ */
+class GarbageCollector {
+    /** The objects of the repository. */
+    private final ObjectStore objects;
+    /** The blobs among OBJECTS. */
+    private final BlobStore blobs;
+    /** The commits, trees and blobs marked so far. */
+    private final Set<String> commits = ConcurrentHashMap.newKeySet(),
+        trees = ConcurrentHashMap.newKeySet(),
+        blobIds = ConcurrentHashMap.newKeySet();
+
+    /** A collector for OBJECTS, whose blobs are BLOBS. */
+    GarbageCollector(ObjectStore objects, BlobStore blobs) {
+        this.objects = objects;
+        this.blobs = blobs;
+    }
+
+    /** Marks everything reachable from the commits COMMITROOTS and the
+     *  blobs BLOBROOTS, and then deletes the other objects last modified
+     *  before CUTOFF, in milliseconds, and temporary files last modified
+     *  before TEMPCUTOFF.  Packs rewritten without deleted objects are
+     *  synced to the disk iff DURABLE.  Returns {objects deleted, bytes
+     *  reclaimed}. */
+    long[] collect(Collection<String> commitRoots, Collection<String> blobRoots,
+                   long cutoff, long tempCutoff, boolean durable) {
+        ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+        try {
+            List<String> commitLevel = new ArrayList<>();
+            for (String id : commitRoots) {
+                if (commits.add(id)) {
+                    commitLevel.add(id);
+                }
+            }
+            List<String> treeLevel = new ArrayList<>();
+            while (!commitLevel.isEmpty()) {
+                List<Commit> read = map(pool, commitLevel,
+                    id -> Commit.read(id, objects.read(ObjectStore.COMMIT, id)));
+                commitLevel = new ArrayList<>();
+                for (Commit commit : read) {
+                    markCommit(commit, commitLevel, treeLevel);
+                }
+            }
+            while (!treeLevel.isEmpty()) {
+                List<Tree> read = map(pool, treeLevel,
+                    id -> Tree.decode(id, objects.read(ObjectStore.TREE, id)));
+                treeLevel = new ArrayList<>();
+                for (Tree tree : read) {
+                    for (Tree.Entry entry : tree.entries().values()) {
+                        if (!entry.isTree) {
+                            blobIds.add(entry.id);
+                        } else if (trees.add(entry.id)) {
+                            treeLevel.add(entry.id);
+                        }
+                    }
+                }
+            }
+            blobIds.addAll(blobRoots);
+            List<String> blobLevel = new ArrayList<>(blobIds);
+            while (!blobLevel.isEmpty()) {
+                List<List<String>> parts = map(pool, blobLevel, blobs::partsOf);
+                blobLevel = new ArrayList<>();
+                for (List<String> ids : parts) {
+                    for (String part : ids) {
+                        if (blobIds.add(part)) {
+                            blobLevel.add(part);
+                        }
+                    }
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+        debug("gc: marked %d commits, %d trees, %d blobs",
+              commits.size(), trees.size(), blobIds.size());
+        return objects.prune((kind, id) -> marked(kind).contains(id), cutoff, tempCutoff,
+                             durable);
+    }
+
+    /** Marks the parents and tree (or, for a commit from an earlier
+     *  version, the blobs) of COMMIT, adding newly marked parents to
+     *  COMMITLEVEL and newly marked trees to TREELEVEL. */
+    private void markCommit(Commit commit, List<String> commitLevel,
+                            List<String> treeLevel) {
+        for (String parent : new String[] { commit.getParent(), commit.getMergeParent() }) {
+            if (parent != null && commits.add(parent)) {
+                commitLevel.add(parent);
+            }
+        }
+        if (commit.getTree() != null) {
+            if (trees.add(commit.getTree())) {
+                treeLevel.add(commit.getTree());
+            }
+        } else if (commit.getTracked() != null) {
+            blobIds.addAll(commit.getTracked().values());
+        }
+    }
+
+    /** Returns the set of marked objects of the given KIND. */
+    private Set<String> marked(byte kind) {
+        switch (kind) {
+            case ObjectStore.COMMIT:
+                return commits;
+            case ObjectStore.TREE:
+                return trees;
+            default:
+                return blobIds;
+        }
+    }
+
+    /** Returns the results of applying F to each of IDS, in parallel in
+     *  POOL. */
+    private static <T> List<T> map(ForkJoinPool pool, List<String> ids,
+                                   Function<String, T> f) {
+        try {
+            return pool.submit(() -> ids.parallelStream().map(f)
+                               .collect(Collectors.toList())).get();
+        } catch (InterruptedException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } catch (ExecutionException excp) {
+            if (excp.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) excp.getCause();
+            }
+            throw new IllegalArgumentException(excp.getCause().getMessage());
+        }
+    }
+}
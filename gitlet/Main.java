@@ -1,5 +1,9 @@
 package gitlet;
 
+import java.util.Arrays;
+
+import static gitlet.Utils.error;
+
 /**
  * Driver class for Gitlet, a subset of the Git version-control system.
  *
@@ -14,30 +18,63 @@ public class Main {
      * <COMMAND> <OPERAND1> <OPERAND2> ...
      */
     public static void main(String[] args) {
-        Repository rep = new Repository();
-        if (args.length == 0) {
-            System.out.println("Please enter a command.");
+        try {
+            run(new Repository(), args);
+        } catch (GitletException excp) {
+            if (excp.getMessage() != null) {
+                System.out.println(excp.getMessage());
+            }
             System.exit(0);
+        }
+    }
+
+    /**
+     * Runs the command in ARGS, as for main, on REP.  Errors are reported
+     * by throwing a GitletException whose message, if any, is to be
+     * printed.  The objects, refs and staging changes the command made
+     * are published only if it completes normally; a command that fails
+     * partway leaves the repository as it was.  If the first of ARGS is
+     * --trace, traces the command that follows (see Trace).
+     */
+    static void run(Repository rep, String[] args) {
+        if (args.length > 0 && args[0].equals("--trace")) {
+            Trace.enable();
+            args = Arrays.copyOfRange(args, 1, args.length);
+        }
+        if (args.length == 0) {
+            throw error("Please enter a command.");
         } else if (!args[0].equals("init") && !Utils.join(Repository.CWD, ".gitlet").exists()) {
-            System.out.println("Not in an initialized Gitlet directory.");
-            System.exit(0);
+            throw error("Not in an initialized Gitlet directory.");
+        }
+        long start = System.nanoTime();
+        try {
+            rep.migrate();
+            dispatch(rep, args);
+            rep.flush();
+        } finally {
+            Trace.report(String.join(" ", args), System.nanoTime() - start);
         }
+    }
+
+    /**
+     * Runs the command in ARGS, which is not empty, on REP, leaving its
+     * writes to be flushed.
+     */
+    private static void dispatch(Repository rep, String[] args) {
         String firstArg = args[0];
         switch (firstArg) {
             case "init":
                 if (validateNumArgs("init", args, 1)) {
                     rep.init();
                 } else {
-                    System.out.println("Incorrect operands.");
-                    System.exit(0);
+                    throw error("Incorrect operands.");
                 }
                 break;
             case "add":
-                if (validateNumArgs("add", args, 2)) {
-                    rep.add(args[1]);
+                if (args.length >= 2) {
+                    rep.add(Arrays.copyOfRange(args, 1, args.length));
                 } else {
-                    System.out.println("Incorrect operands.");
-                    System.exit(0);
+                    throw error("Incorrect operands.");
                 }
                 break;
             case "commit":
@@ -45,13 +82,11 @@ public class Main {
                     System.out.println("Please enter a commit message.");
                 } else if (validateNumArgs("commit", args, 2)
                         && args[1].length() == 0) {
-                    System.out.println("Please enter a commit message.");
-                    System.exit(0);
+                    throw error("Please enter a commit message.");
                 } else if (validateNumArgs("commit", args, 2)) {
                     rep.commit(args[1]);
                 } else {
-                    System.out.println("Incorrect operands.");
-                    System.exit(0);
+                    throw error("Incorrect operands.");
                 }
                 break;
             case "checkout":
@@ -62,81 +97,105 @@ public class Main {
                     rep.log();
                     break;
                 } else {
-                    System.out.println("Incorrect operands.");
-                    System.exit(0);
-                    break;
+                    throw error("Incorrect operands.");
                 }
             case "status":
                 if (validateNumArgs("status", args, 1)) {
                     rep.status();
                     break;
                 } else {
-                    System.out.println("Incorrect operands.");
-                    System.exit(0);
-                    break;
+                    throw error("Incorrect operands.");
                 }
             case "find":
                 if (validateNumArgs("find", args, 2)) {
                     rep.find(args[1]);
                     break;
-                } else {
-                    System.out.println("Incorrect operands.");
-                    System.exit(0);
+                } else if (validateNumArgs("find", args, 3) && args[1].equals("--grep")) {
+                    rep.findGrep(args[2]);
                     break;
+                } else {
+                    throw error("Incorrect operands.");
                 }
             case "rm":
-                if (validateNumArgs("rm", args, 2)) {
-                    rep.remove(args[1]);
+                if (args.length >= 2) {
+                    rep.remove(Arrays.copyOfRange(args, 1, args.length));
                     break;
                 } else {
-                    System.out.println("Incorrect operands.");
-                    System.exit(0);
-                    break;
+                    throw error("Incorrect operands.");
                 }
             case "global-log":
                 if (validateNumArgs("global", args, 1)) {
                     rep.global();
                     break;
-                } else {
-                    System.out.println("Incorrect operands.");
-                    System.exit(0);
+                } else if (validateNumArgs("global", args, 3) && args[1].equals("-n")
+                        && args[2].matches("\\d{1,18}")) {
+                    rep.global(Long.parseLong(args[2]));
                     break;
+                } else {
+                    throw error("Incorrect operands.");
                 }
             case "branch":
                 if (validateNumArgs("branch", args, 2)) {
                     rep.branch(args[1]);
                     break;
                 } else {
-                    System.out.println("Incorrect operands.");
-                    System.exit(0);
-                    break;
+                    throw error("Incorrect operands.");
                 }
             case "reset":
                 if (validateNumArgs("reset", args, 2)) {
                     rep.reset(args[1]);
                     break;
                 } else {
-                    System.out.println("Incorrect operands.");
-                    System.exit(0);
-                    break;
+                    throw error("Incorrect operands.");
                 }
             case "rm-branch":
                 if (validateNumArgs("rm-branch", args, 2)) {
                     rep.removeBranch(args[1]);
                     break;
                 } else {
-                    System.out.println("Incorrect operands.");
-                    System.exit(0);
+                    throw error("Incorrect operands.");
+                }
+            case "repack":
+                if (validateNumArgs("repack", args, 1)) {
+                    rep.repack();
                     break;
+                } else {
+                    throw error("Incorrect operands.");
+                }
+            case "gc":
+                if (validateNumArgs("gc", args, 1)) {
+                    rep.gc(Repository.GC_GRACE);
+                    break;
+                } else if (validateNumArgs("gc", args, 3) && args[1].equals("--grace")
+                        && args[2].matches("\\d{1,9}")) {
+                    rep.gc(Long.parseLong(args[2]));
+                    break;
+                } else {
+                    throw error("Incorrect operands.");
                 }
             case "merge":
                 if (validateNumArgs("merge", args, 2)) {
                     rep.merge(args[1]);
                     break;
                 } else {
-                    System.out.println("Incorrect operands.");
-                    System.exit(0);
+                    throw error("Incorrect operands.");
+                }
+            case "diff":
+                if (args.length <= 3) {
+                    rep.diff(Arrays.copyOfRange(args, 1, args.length));
                     break;
+                } else {
+                    throw error("Incorrect operands.");
+                }
+            case "daemon":
+                if (validateNumArgs("daemon", args, 1)) {
+                    Daemon.serve();
+                    break;
+                } else if (validateNumArgs("daemon", args, 2) && args[1].equals("stop")) {
+                    Daemon.stop();
+                    break;
+                } else {
+                    throw error("Incorrect operands.");
                 }
             default:
                 System.out.println("No command with that name exists.");
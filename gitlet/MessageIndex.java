@@ -0,0 +1,260 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static gitlet.Utils.*;
+
+/**
+ * An index of commit messages, used by find to locate commits by their
+ * message, or by a word in it, without reading every commit.
+ *
+ * Each commit is filed under a number of keys: its whole message, and
+ * each distinct token of the message (the runs of letters and digits in
+ * it, in lower case).  A key is hashed to 64 bits; the top byte of the
+ * hash chooses one of 256 bucket files in the index directory, named by
+ * two hexadecimal digits, and a record
+ *
+ *     long     hash of the key
+ *     byte[20] raw commit id
+ *
+ * is appended to that bucket.  A lookup reads a single bucket and keeps
+ * the records with the right hash.  Since different keys may share a
+ * hash, callers check the messages of the commits found.
+ *
+ * Buckets are only ever appended to.  The records of a command's new
+ * commits are appended by flush(), holding the repository lock, just
+ * before their objects are written, so an interrupted commit can leave
+ * records for a commit that does not exist, which lookups ignore, but
+ * never a commit missing from the index.  A partial record left at the end
+ * of a bucket by an interrupted append is ignored, and cut off before the
+ * next append.  The index is rebuilt from the object store if its
+ * directory is missing.
+ *
+ * @author KEVIN ZHU
+ */
+class MessageIndex {
+    /** Length of a raw SHA-1 id in bytes. */
+    private static final int RAW_LENGTH = UID_LENGTH / 2;
+    /** Bytes taken by one record. */
+    private static final int RECORD_LENGTH = 8 + RAW_LENGTH;
+
+    /** The index directory. */
+    private final File dir;
+    /** The objects of the repository. */
+    private final ObjectStore objects;
+    /** The commits added since the last flush(). */
+    private final List<Commit> pending = new ArrayList<>();
+
+    /** An index stored in DIR describing the commits among OBJECTS. */
+    MessageIndex(File dir, ObjectStore objects) {
+        this.dir = dir;
+        this.objects = objects;
+    }
+
+    /** Records COMMIT, to be written by flush(). */
+    synchronized void add(Commit commit) {
+        pending.add(commit);
+    }
+
+    /** Appends the records of the commits added since the last call to
+     *  the index.  Must be called holding the repository lock, before the
+     *  new commits are written to the object store. */
+    synchronized void flush() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        if (!dir.isDirectory()) {
+            rebuild();
+        }
+        for (Commit commit : pending) {
+            append(dir, commit);
+        }
+        pending.clear();
+    }
+
+    /** Returns the ids of the commits whose message is MESSAGE, in
+     *  ascending order. */
+    List<String> find(String message) {
+        List<String> result = new ArrayList<>();
+        for (String id : candidates(messageKey(message))) {
+            Commit commit = read(id);
+            if (commit != null && commit.getMessage().equals(message)) {
+                result.add(id);
+            }
+        }
+        return result;
+    }
+
+    /** Returns the ids of the commits whose messages contain every token
+     *  of WORDS, in ascending order.  Returns nothing if WORDS has no
+     *  tokens. */
+    List<String> grep(String words) {
+        Set<String> wanted = tokens(words);
+        List<String> result = new ArrayList<>();
+        if (wanted.isEmpty()) {
+            return result;
+        }
+        Set<String> found = null;
+        for (String token : wanted) {
+            Set<String> ids = candidates(tokenKey(token));
+            if (found == null) {
+                found = ids;
+            } else {
+                found.retainAll(ids);
+            }
+        }
+        for (String id : found) {
+            Commit commit = read(id);
+            if (commit != null && tokens(commit.getMessage()).containsAll(wanted)) {
+                result.add(id);
+            }
+        }
+        return result;
+    }
+
+    /** Recreates the index from the commits in the object store, replacing
+     *  any existing index. */
+    void rebuild() {
+        File temp = new File(dir.getPath() + ".tmp");
+        File old = new File(dir.getPath() + ".old");
+        delete(temp);
+        temp.mkdir();
+        Map<String, ByteArrayOutputStream> buckets = new HashMap<>();
+        for (String id : objects.list(ObjectStore.COMMIT)) {
+            Commit commit = Commit.read(id, objects.read(ObjectStore.COMMIT, id));
+            for (long key : keys(commit)) {
+                buckets.computeIfAbsent(bucket(temp, key).getName(),
+                                        name -> new ByteArrayOutputStream())
+                    .write(record(key, id), 0, RECORD_LENGTH);
+            }
+        }
+        for (Map.Entry<String, ByteArrayOutputStream> bucket : buckets.entrySet()) {
+            writeContents(new File(temp, bucket.getKey()), bucket.getValue().toByteArray());
+        }
+        delete(old);
+        if (dir.exists() && !dir.renameTo(old) || !temp.renameTo(dir)) {
+            throw new IllegalArgumentException("cannot create " + dir);
+        }
+        delete(old);
+    }
+
+    /** Deletes the index directory DIRECTORY, if it exists. */
+    private static void delete(File directory) {
+        List<String> names = plainFilenamesIn(directory);
+        if (names != null) {
+            for (String name : names) {
+                new File(directory, name).delete();
+            }
+        }
+        directory.delete();
+    }
+
+    /** Returns the ids of the commits filed under the key hash KEY, in
+     *  ascending order, rebuilding the index if it is missing. */
+    private Set<String> candidates(long key) {
+        if (!dir.isDirectory()) {
+            rebuild();
+        }
+        Set<String> result = new TreeSet<>();
+        File bucket = bucket(dir, key);
+        if (!bucket.isFile()) {
+            return result;
+        }
+        byte[] contents = readContents(bucket);
+        ByteBuffer buf = ByteBuffer.wrap(contents);
+        byte[] raw = new byte[RAW_LENGTH];
+        for (int pos = 0; pos + RECORD_LENGTH <= contents.length;
+             pos += RECORD_LENGTH) {
+            buf.position(pos);
+            if (buf.getLong() == key) {
+                buf.get(raw);
+                result.add(CommitIndex.toHex(raw));
+            }
+        }
+        return result;
+    }
+
+    /** Returns the commit with id ID, or null if it was never written. */
+    private Commit read(String id) {
+        if (!objects.contains(ObjectStore.COMMIT, id)) {
+            return null;
+        }
+        return Commit.read(id, objects.read(ObjectStore.COMMIT, id));
+    }
+
+    /** Appends the records of COMMIT to the buckets in DIRECTORY. */
+    private static void append(File directory, Commit commit) {
+        for (long key : keys(commit)) {
+            try (RandomAccessFile out = new RandomAccessFile(bucket(directory, key), "rw")) {
+                long length = out.length() - out.length() % RECORD_LENGTH;
+                out.setLength(length);
+                out.seek(length);
+                out.write(record(key, commit.getId()));
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+    }
+
+    /** Returns the key hashes under which COMMIT is filed. */
+    private static Set<Long> keys(Commit commit) {
+        Set<Long> result = new LinkedHashSet<>();
+        result.add(messageKey(commit.getMessage()));
+        for (String token : tokens(commit.getMessage())) {
+            result.add(tokenKey(token));
+        }
+        return result;
+    }
+
+    /** Returns the record filing the commit with id ID under KEY. */
+    private static byte[] record(long key, String id) {
+        ByteBuffer result = ByteBuffer.allocate(RECORD_LENGTH);
+        result.putLong(key);
+        result.put(CommitIndex.toRaw(id));
+        return result.array();
+    }
+
+    /** Returns the bucket file in DIRECTORY that holds the key hash KEY. */
+    private static File bucket(File directory, long key) {
+        return new File(directory, String.format("%02x", key >>> 56));
+    }
+
+    /** Returns the distinct tokens of MESSAGE: its maximal runs of letters
+     *  and digits, in lower case, in order of first appearance. */
+    static Set<String> tokens(String message) {
+        Set<String> result = new LinkedHashSet<>();
+        for (String token : message.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}]+")) {
+            if (!token.isEmpty()) {
+                result.add(token);
+            }
+        }
+        return result;
+    }
+
+    /** Returns the key hash of a whole MESSAGE. */
+    private static long messageKey(String message) {
+        return hash("message " + message);
+    }
+
+    /** Returns the key hash of TOKEN. */
+    private static long tokenKey(String token) {
+        return hash("token " + token);
+    }
+
+    /** Returns a 64-bit hash of KEY: the first eight bytes of its SHA-1. */
+    private static long hash(String key) {
+        return Long.parseUnsignedLong(sha1(key).substring(0, 16), 16);
+    }
+}
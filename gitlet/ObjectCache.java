@@ -0,0 +1,70 @@
+package gitlet;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.function.ToLongFunction;
+
+/**
+ * A cache of decoded objects, by id, that evicts the least recently used
+ * objects once their total weight exceeds a limit.  Objects are immutable
+ * once stored under their id, so entries never need to be invalidated.
+ * Counts its hits and misses, for debugging.
+ *
+ * @author KEVIN ZHU
+ */
+class ObjectCache<V> {
+    /** The name under which stats() reports. */
+    private final String name;
+    /** The largest total weight kept. */
+    private final long limit;
+    /** Returns the weight of a value. */
+    private final ToLongFunction<V> weigher;
+    /** The cached values, least recently used first. */
+    private final LinkedHashMap<String, V> values =
+        new LinkedHashMap<>(16, 0.75f, true);
+    /** Total weight of VALUES. */
+    private long weight;
+    /** Number of lookups that did, and did not, find a value. */
+    private long hits, misses;
+
+    /** A cache named NAME holding values, weighed by WEIGHER, whose total
+     *  weight is at most LIMIT. */
+    ObjectCache(String name, long limit, ToLongFunction<V> weigher) {
+        this.name = name;
+        this.limit = limit;
+        this.weigher = weigher;
+    }
+
+    /** Returns the value cached for ID, or null if there is none. */
+    synchronized V get(String id) {
+        V result = values.get(id);
+        if (result == null) {
+            misses += 1;
+        } else {
+            hits += 1;
+        }
+        return result;
+    }
+
+    /** Caches VALUE under ID, evicting the least recently used values
+     *  as needed.  Values heavier than a quarter of the limit are not
+     *  kept, so that one of them cannot empty the cache. */
+    synchronized void put(String id, V value) {
+        long w = weigher.applyAsLong(value);
+        if (w > limit / 4) {
+            return;
+        }
+        V old = values.put(id, value);
+        weight += w - (old == null ? 0 : weigher.applyAsLong(old));
+        Iterator<V> oldest = values.values().iterator();
+        while (weight > limit && oldest.hasNext()) {
+            weight -= weigher.applyAsLong(oldest.next());
+            oldest.remove();
+        }
+    }
+
+    /** Returns a summary of the lookups made so far. */
+    synchronized String stats() {
+        return String.format("%s %d hits, %d misses", name, hits, misses);
+    }
+}
@@ -0,0 +1,440 @@
+package gitlet;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.function.BiPredicate;
+import java.util.function.Function;
+
+import static gitlet.Utils.*;
+
+/**
+ * All the objects of a repository, whether stored loose (one file per
+ * object) or in packs made by repack().  A loose object with id ID lives
+ * in the directory for its kind, in the fan-out subdirectory named by the
+ * first FAN_OUT characters of ID, under the rest of ID, so that no
+ * directory grows much beyond 1/256 of the loose objects of its kind.
+ * Earlier versions of gitlet kept loose objects directly in the
+ * directory for their kind; fanOut() moves them.  Objects are always
+ * written loose; readers look in the loose directory first and then in
+ * each pack, so callers need not know where an object lives.  New loose
+ * objects go through a WriteBatch (see batch()), and are readable from
+ * it before they are committed.
+ *
+ * @author KEVIN ZHU
+ */
+class ObjectStore {
+    /** Kind of commit objects. */
+    static final byte COMMIT = 'c';
+    /** Kind of blob objects. */
+    static final byte BLOB = 'b';
+    /** Kind of tree objects. */
+    static final byte TREE = 't';
+    /** Length of the names of fan-out directories. */
+    static final int FAN_OUT = 2;
+
+    /** The directory of loose commits. */
+    private final File commitDir;
+    /** The directory of loose blobs. */
+    private final File blobDir;
+    /** The directory of loose trees. */
+    private final File treeDir;
+    /** The directory of packs. */
+    private final File packDir;
+    /** The packs in PACKDIR, or null until first needed. */
+    private List<Pack> packs;
+    /** The loose objects written but not yet committed. */
+    private final WriteBatch batch = new WriteBatch();
+
+    /** A store keeping loose commits in COMMITDIR, loose blobs in BLOBDIR,
+     *  loose trees in TREEDIR and packs in PACKDIR. */
+    ObjectStore(File commitDir, File blobDir, File treeDir, File packDir) {
+        this.commitDir = commitDir;
+        this.blobDir = blobDir;
+        this.treeDir = treeDir;
+        this.packDir = packDir;
+    }
+
+    /** Returns the file that holds, or would hold, the loose object of
+     *  the given KIND with id ID. */
+    File looseFile(byte kind, String id) {
+        return new File(new File(directory(kind), id.substring(0, FAN_OUT)),
+                        id.substring(FAN_OUT));
+    }
+
+    /** Returns the batch through which new loose objects are written. */
+    WriteBatch batch() {
+        return batch;
+    }
+
+    /** Stores CONTENTS as the loose object of the given KIND with id ID,
+     *  unless that object already exists. */
+    void write(byte kind, String id, byte[] contents) {
+        if (!contains(kind, id)) {
+            batch.write(looseFile(kind, id), contents);
+        } else {
+            freshen(kind, id);
+        }
+    }
+
+    /** Marks the existing object of the given KIND with id ID as recently
+     *  written, by touching its loose file or the pack that holds it, so
+     *  that prune() spares it until it is referred to. */
+    void freshen(byte kind, String id) {
+        long now = System.currentTimeMillis();
+        File loose = looseFile(kind, id);
+        if (loose.isFile()) {
+            loose.setLastModified(now);
+            return;
+        }
+        byte[] raw = CommitIndex.toRaw(id);
+        for (Pack pack : packs()) {
+            if (pack.find(kind, raw) != null) {
+                pack.packFile().setLastModified(now);
+                return;
+            }
+        }
+    }
+
+    /** Returns true iff the object of the given KIND with id ID exists. */
+    boolean contains(byte kind, String id) {
+        return readableFile(kind, id).isFile() || findPacked(kind, id) != null;
+    }
+
+    /** Returns a stream over the stored form of the object of the given
+     *  KIND with id ID.  Throws IllegalArgumentException if there is no
+     *  such object. */
+    InputStream open(byte kind, String id) {
+        File loose = readableFile(kind, id);
+        if (loose.isFile()) {
+            try {
+                return new FileInputStream(loose);
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+        ByteBuffer packed = findPacked(kind, id);
+        if (packed == null) {
+            throw new IllegalArgumentException("no such object: " + id);
+        }
+        return new ByteBufferInputStream(packed);
+    }
+
+    /** Returns the file holding the stored form of the object of the given
+     *  KIND with id ID, or null if it is not stored loose. */
+    File looseSource(byte kind, String id) {
+        File loose = readableFile(kind, id);
+        return loose.isFile() ? loose : null;
+    }
+
+    /** Returns the stored form of the object of the given KIND with id ID.
+     *  Throws IllegalArgumentException if there is no such object. */
+    byte[] read(byte kind, String id) {
+        File loose = readableFile(kind, id);
+        if (loose.isFile()) {
+            return readContents(loose);
+        }
+        ByteBuffer packed = findPacked(kind, id);
+        if (packed == null) {
+            throw new IllegalArgumentException("no such object: " + id);
+        }
+        Trace.Span span = Trace.start(Trace.READ);
+        byte[] result = new byte[packed.remaining()];
+        packed.get(result);
+        Trace.end(span, null, result.length);
+        return result;
+    }
+
+    /** Returns the ids of all objects of the given KIND, in ascending
+     *  order. */
+    List<String> list(byte kind) {
+        TreeSet<String> result = new TreeSet<>(looseIds(kind));
+        for (Pack pack : packs()) {
+            for (byte[] raw : pack.ids(kind)) {
+                result.add(CommitIndex.toHex(raw));
+            }
+        }
+        return new ArrayList<>(result);
+    }
+
+    /** Moves every loose object, and the contents of every existing pack,
+     *  into new packs (just one unless they would exceed Pack.MAX_SIZE),
+     *  then deletes the loose objects and old packs.  Each blob is packed
+     *  in the stored form that BLOBFORM returns for its id, or as it is
+     *  currently stored if that is null.  If DURABLE, the new packs are
+     *  synced to the disk before anything is deleted.  Returns the number
+     *  of objects in the new packs. */
+    synchronized int repack(Function<String, ByteBuffer> blobForm, boolean durable) {
+        Map<String, Pack.Entry> entries = new LinkedHashMap<>();
+        for (Pack pack : packs()) {
+            for (int pos = 0; pos < pack.size(); pos += 1) {
+                byte[] raw = pack.id(pos);
+                ByteBuffer stored = pack.entry(pos);
+                if (pack.kind(pos) == BLOB) {
+                    ByteBuffer form = blobForm.apply(CommitIndex.toHex(raw));
+                    stored = form == null ? stored : form;
+                }
+                entries.put(pack.kind(pos) + CommitIndex.toHex(raw),
+                            new Pack.Entry(pack.kind(pos), raw, stored));
+            }
+        }
+        List<File> loose = new ArrayList<>();
+        for (byte kind : new byte[] { COMMIT, TREE, BLOB }) {
+            for (String id : looseIds(kind)) {
+                File file = looseFile(kind, id);
+                loose.add(file);
+                ByteBuffer form = kind == BLOB ? blobForm.apply(id) : null;
+                entries.put(kind + id, form == null
+                            ? new Pack.Entry(kind, CommitIndex.toRaw(id), file)
+                            : new Pack.Entry(kind, CommitIndex.toRaw(id), form));
+            }
+        }
+        packDir.mkdir();
+        List<File> newIndexes =
+            Pack.write(packDir, new ArrayList<>(entries.values()), durable);
+        for (Pack pack : packs()) {
+            File oldIndex = indexFile(pack);
+            if (!newIndexes.contains(oldIndex)) {
+                oldIndex.delete();
+                pack.packFile().delete();
+            }
+        }
+        for (File file : loose) {
+            file.delete();
+        }
+        packs = null;
+        return entries.size();
+    }
+
+    /** Deletes the objects last modified before CUTOFF, a time in
+     *  milliseconds, for which LIVE returns false given their kind and id,
+     *  and the temporary files of interrupted writes last modified before
+     *  TEMPCUTOFF.  A pack last modified before CUTOFF that holds objects
+     *  to delete is rewritten without them, synced to the disk first if
+     *  DURABLE.  Returns {objects deleted, bytes reclaimed}. */
+    synchronized long[] prune(BiPredicate<Byte, String> live, long cutoff,
+                              long tempCutoff, boolean durable) {
+        long removed = 0;
+        long bytes = 0;
+        for (byte kind : new byte[] { COMMIT, TREE, BLOB }) {
+            List<File> dirs = fanOutDirectories(kind);
+            dirs.add(directory(kind));
+            for (File dir : dirs) {
+                List<String> names = plainFilenamesIn(dir);
+                if (names == null) {
+                    continue;
+                }
+                String prefix = dir.equals(directory(kind)) ? null : dir.getName();
+                for (String name : names) {
+                    File file = new File(dir, name);
+                    boolean isObject = prefix != null && isId(prefix + name);
+                    long length = file.length();
+                    if (isObject && !live.test(kind, prefix + name)
+                            && file.lastModified() < cutoff && file.delete()) {
+                        removed += 1;
+                        bytes += length;
+                    } else if (!isObject && name.endsWith(".tmp")
+                            && file.lastModified() < tempCutoff && file.delete()) {
+                        bytes += length;
+                    }
+                }
+            }
+        }
+        for (Pack pack : packs()) {
+            File packFile = pack.packFile();
+            if (packFile.lastModified() >= cutoff) {
+                continue;
+            }
+            List<Pack.Entry> kept = new ArrayList<>();
+            for (int pos = 0; pos < pack.size(); pos += 1) {
+                byte[] raw = pack.id(pos);
+                if (live.test(pack.kind(pos), CommitIndex.toHex(raw))) {
+                    kept.add(new Pack.Entry(pack.kind(pos), raw, pack.entry(pos)));
+                }
+            }
+            if (kept.size() == pack.size()) {
+                continue;
+            }
+            File index = indexFile(pack);
+            long before = packFile.length() + index.length();
+            if (!kept.isEmpty()) {
+                for (File newIndex : Pack.write(packDir, kept, durable)) {
+                    String name = newIndex.getName();
+                    File newPack = new File(packDir,
+                                            name.substring(0, name.length() - 4) + ".pack");
+                    bytes -= newIndex.length() + newPack.length();
+                }
+            }
+            index.delete();
+            packFile.delete();
+            removed += pack.size() - kept.size();
+            bytes += before;
+        }
+        packs = null;
+        return new long[] { removed, bytes };
+    }
+
+    /** Returns the index file of PACK. */
+    private File indexFile(Pack pack) {
+        String name = pack.packFile().getName();
+        return new File(packDir, name.substring(0, name.length() - 5) + ".idx");
+    }
+
+    /** Returns the file from which the loose object of the given KIND
+     *  with id ID, if it exists, can be read: its temporary file if it is
+     *  pending in the batch, and otherwise its loose file. */
+    private File readableFile(byte kind, String id) {
+        File loose = looseFile(kind, id);
+        File pending = batch.pending(loose);
+        return pending != null ? pending : loose;
+    }
+
+    /** Returns the directory of loose objects of the given KIND. */
+    private File directory(byte kind) {
+        switch (kind) {
+            case COMMIT:
+                return commitDir;
+            case BLOB:
+                return blobDir;
+            case TREE:
+                return treeDir;
+            default:
+                throw new IllegalArgumentException("unknown object kind " + kind);
+        }
+    }
+
+    /** Returns the ids of the loose objects of the given KIND. */
+    private List<String> looseIds(byte kind) {
+        List<String> result = new ArrayList<>();
+        for (File dir : fanOutDirectories(kind)) {
+            List<String> names = plainFilenamesIn(dir);
+            if (names != null) {
+                for (String name : names) {
+                    if (isId(dir.getName() + name)) {
+                        result.add(dir.getName() + name);
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Returns the fan-out directories of the loose objects of the given
+     *  KIND. */
+    private List<File> fanOutDirectories(byte kind) {
+        List<File> result = new ArrayList<>();
+        String[] names = Utils.list(directory(kind));
+        if (names != null) {
+            for (String name : names) {
+                if (name.length() == FAN_OUT && name.matches("[0-9a-f]+")) {
+                    result.add(new File(directory(kind), name));
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Returns true iff NAME has the form of an object id. */
+    private static boolean isId(String name) {
+        return name.length() == UID_LENGTH && name.matches("[0-9a-f]+");
+    }
+
+    /** Moves the loose objects kept directly in the directory for their
+     *  kind, as earlier versions of gitlet kept them, into their fan-out
+     *  directories, and returns the number moved.  Each move is a rename,
+     *  so an interrupted call loses nothing and may simply be repeated. */
+    synchronized int fanOut() {
+        int moved = 0;
+        for (byte kind : new byte[] { COMMIT, TREE, BLOB }) {
+            List<String> names = plainFilenamesIn(directory(kind));
+            if (names == null) {
+                continue;
+            }
+            for (String name : names) {
+                if (!isId(name)) {
+                    continue;
+                }
+                File source = new File(directory(kind), name);
+                File dest = looseFile(kind, name);
+                dest.getParentFile().mkdirs();
+                if (!(dest.isFile() ? source.delete() : source.renameTo(dest))) {
+                    throw new IllegalArgumentException("cannot move " + source);
+                }
+                moved += 1;
+            }
+        }
+        return moved;
+    }
+
+    /** Returns the stored form of the packed object of the given KIND with
+     *  id ID, or null if no pack contains it. */
+    ByteBuffer findPacked(byte kind, String id) {
+        if (id.length() != UID_LENGTH || packs().isEmpty()) {
+            return null;
+        }
+        byte[] raw = CommitIndex.toRaw(id);
+        for (Pack pack : packs()) {
+            ByteBuffer result = pack.find(kind, raw);
+            if (result != null) {
+                return result;
+            }
+        }
+        return null;
+    }
+
+    /** Returns the packs of this store, opening them if necessary. */
+    private synchronized List<Pack> packs() {
+        if (packs == null) {
+            packs = new ArrayList<>();
+            String[] names = Utils.list(packDir);
+            if (names != null) {
+                for (String name : names) {
+                    if (name.endsWith(".idx")) {
+                        packs.add(new Pack(new File(packDir, name)));
+                    }
+                }
+            }
+        }
+        return packs;
+    }
+
+    /** An InputStream over the remaining contents of a ByteBuffer. */
+    private static class ByteBufferInputStream extends InputStream {
+        /** The contents not yet read. */
+        private final ByteBuffer buf;
+
+        /** A stream over the remaining contents of BUF. */
+        ByteBufferInputStream(ByteBuffer buf) {
+            this.buf = buf;
+        }
+
+        @Override
+        public int read() {
+            return buf.hasRemaining() ? buf.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            } else if (!buf.hasRemaining()) {
+                return -1;
+            }
+            int n = Math.min(len, buf.remaining());
+            buf.get(b, off, n);
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return buf.remaining();
+        }
+    }
+}
@@ -0,0 +1,375 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * A read-only pack of objects, made of two memory-mapped files.  The
+ * pack file (NAME.pack) holds a header,
+ *
+ *     int     magic "GLPK"
+ *     int     format version
+ *     int     number of objects
+ *
+ * followed by the stored form of each object, exactly as its loose file
+ * would hold it.  The index file (NAME.idx) holds
+ *
+ *     int     magic "GLPI"
+ *     int     format version
+ *     int     number of objects, N
+ *     int[256]  fan-out table: entry B counts the ids whose first byte
+ *             is at most B
+ *     byte[N][20]  the raw ids, in ascending order
+ *     byte[N] the kind of each object (see ObjectStore)
+ *     long[N] the offset of each object in the pack file
+ *     long[N] the length of each object
+ *
+ * Both files are written by write() and never modified afterwards.  A
+ * pack file may be at most MAX_SIZE bytes long; write() spreads larger
+ * sets of objects over several packs.
+ *
+ * @author KEVIN ZHU
+ */
+class Pack {
+    /** First four bytes of a pack file. */
+    static final int PACK_MAGIC = 0x474c504b;
+    /** First four bytes of an index file. */
+    static final int INDEX_MAGIC = 0x474c5049;
+    /** Current format version of both files. */
+    static final int VERSION = 1;
+    /** Length of the pack file header. */
+    static final int PACK_HEADER_LENGTH = 12;
+    /** Offset of the fan-out table in the index file. */
+    private static final int FANOUT_OFFSET = 12;
+    /** Offset of the first id in the index file. */
+    private static final int IDS_OFFSET = FANOUT_OFFSET + 256 * 4;
+    /** Largest pack file, which must fit in one memory map. */
+    static final long MAX_SIZE = Integer.MAX_VALUE;
+    /** Length of a raw id. */
+    private static final int RAW_LENGTH = Utils.UID_LENGTH / 2;
+
+    /** The pack file. */
+    private final File packFile;
+    /** The mapped index file. */
+    private final ByteBuffer index;
+    /** The mapped pack file. */
+    private final ByteBuffer data;
+    /** Number of objects in this pack. */
+    private final int count;
+
+    /** The pack whose index file is INDEXFILE.  Throws
+     *  IllegalArgumentException if either of its files is unusable. */
+    Pack(File indexFile) {
+        String name = indexFile.getName();
+        packFile = new File(indexFile.getParentFile(),
+                            name.substring(0, name.length() - 4) + ".pack");
+        index = map(indexFile);
+        data = map(packFile);
+        if (index.getInt(0) != INDEX_MAGIC || index.getInt(4) != VERSION
+                || data.getInt(0) != PACK_MAGIC || data.getInt(4) != VERSION) {
+            throw new IllegalArgumentException("bad pack " + packFile);
+        }
+        count = index.getInt(8);
+    }
+
+    /** Returns the pack file. */
+    File packFile() {
+        return packFile;
+    }
+
+    /** Returns the number of objects in this pack. */
+    int size() {
+        return count;
+    }
+
+    /** Returns the stored form of the object of the given KIND and raw id
+     *  RAW, or null if this pack does not contain it. */
+    ByteBuffer find(byte kind, byte[] raw) {
+        int pos = position(raw);
+        if (pos < 0 || kind(pos) != kind) {
+            return null;
+        }
+        return entry(pos);
+    }
+
+    /** Returns the raw id of the object at position POS. */
+    byte[] id(int pos) {
+        byte[] raw = new byte[RAW_LENGTH];
+        ByteBuffer ids = index.duplicate();
+        ids.position(IDS_OFFSET + pos * RAW_LENGTH);
+        ids.get(raw);
+        return raw;
+    }
+
+    /** Returns the kind of the object at position POS. */
+    byte kind(int pos) {
+        return index.get(IDS_OFFSET + count * RAW_LENGTH + pos);
+    }
+
+    /** Returns the stored form of the object at position POS. */
+    ByteBuffer entry(int pos) {
+        int base = IDS_OFFSET + count * (RAW_LENGTH + 1);
+        long offset = index.getLong(base + pos * 8);
+        long length = index.getLong(base + count * 8 + pos * 8);
+        ByteBuffer result = data.duplicate();
+        result.position((int) offset);
+        result.limit((int) (offset + length));
+        return result.slice();
+    }
+
+    /** Returns the ids of all objects of the given KIND. */
+    List<byte[]> ids(byte kind) {
+        List<byte[]> result = new ArrayList<>();
+        for (int pos = 0; pos < count; pos += 1) {
+            if (kind(pos) == kind) {
+                result.add(id(pos));
+            }
+        }
+        return result;
+    }
+
+    /** Returns the position of RAW in the index, or -1 if absent. */
+    private int position(byte[] raw) {
+        int first = raw[0] & 0xff;
+        int lo = first == 0 ? 0 : index.getInt(FANOUT_OFFSET + (first - 1) * 4);
+        int hi = index.getInt(FANOUT_OFFSET + first * 4) - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = compare(mid, raw);
+            if (cmp < 0) {
+                lo = mid + 1;
+            } else if (cmp > 0) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /** Compares the id at position POS with RAW. */
+    private int compare(int pos, byte[] raw) {
+        int start = IDS_OFFSET + pos * RAW_LENGTH;
+        for (int i = 0; i < RAW_LENGTH; i += 1) {
+            int cmp = (index.get(start + i) & 0xff) - (raw[i] & 0xff);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return 0;
+    }
+
+    /** Returns FILE mapped read-only into memory. */
+    private static MappedByteBuffer map(File file) {
+        try (FileChannel channel = FileChannel.open(file.toPath(),
+                                                    StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("pack too large: " + file);
+            }
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** An object to be written into a pack: its kind, its raw id and
+     *  either the loose file or the buffer holding its stored form. */
+    static class Entry {
+        /** The kind of object. */
+        final byte kind;
+        /** The raw id of the object. */
+        final byte[] raw;
+        /** The loose file holding the object, or null. */
+        final File file;
+        /** The stored form of the object, if FILE is null. */
+        final ByteBuffer contents;
+        /** Offset of the object in the pack being written. */
+        long offset;
+        /** Length of the object in the pack being written. */
+        long length;
+
+        /** An object of the given KIND and raw id RAW stored in FILE. */
+        Entry(byte kind, byte[] raw, File file) {
+            this.kind = kind;
+            this.raw = raw;
+            this.file = file;
+            this.contents = null;
+        }
+
+        /** An object of the given KIND and raw id RAW whose stored form
+         *  is CONTENTS. */
+        Entry(byte kind, byte[] raw, ByteBuffer contents) {
+            this.kind = kind;
+            this.raw = raw;
+            this.file = null;
+            this.contents = contents;
+        }
+    }
+
+    /** Writes packs holding ENTRIES, which must have distinct ids, into
+     *  DIR and returns their index files.  The objects are split, in order
+     *  of id, among as few packs as keep each pack file within MAX_SIZE
+     *  bytes.  If DURABLE, the packs, their indexes and DIR are synced to
+     *  the disk before this returns, so that the objects they hold may
+     *  then be deleted from elsewhere. */
+    static List<File> write(File dir, List<Entry> entries, boolean durable) {
+        return write(dir, entries, MAX_SIZE, durable);
+    }
+
+    /** Writes packs holding ENTRIES, as for write(DIR, ENTRIES, DURABLE),
+     *  but with pack files of at most MAXSIZE bytes. */
+    static List<File> write(File dir, List<Entry> entries, long maxSize,
+                            boolean durable) {
+        entries.sort(new Comparator<Entry>() {
+            @Override
+            public int compare(Entry a, Entry b) {
+                for (int i = 0; i < RAW_LENGTH; i += 1) {
+                    int cmp = (a.raw[i] & 0xff) - (b.raw[i] & 0xff);
+                    if (cmp != 0) {
+                        return cmp;
+                    }
+                }
+                return 0;
+            }
+        });
+        List<File> result = new ArrayList<>();
+        List<Entry> group = new ArrayList<>();
+        long size = PACK_HEADER_LENGTH;
+        for (Entry entry : entries) {
+            long length = entry.file != null ? entry.file.length()
+                : entry.contents.remaining();
+            if (PACK_HEADER_LENGTH + length > maxSize) {
+                throw new IllegalArgumentException("object too large to pack: "
+                    + CommitIndex.toHex(entry.raw));
+            }
+            if (size + length > maxSize) {
+                result.add(writeOne(dir, group, durable));
+                group = new ArrayList<>();
+                size = PACK_HEADER_LENGTH;
+            }
+            group.add(entry);
+            size += length;
+        }
+        if (!group.isEmpty() || result.isEmpty()) {
+            result.add(writeOne(dir, group, durable));
+        }
+        if (durable) {
+            WriteBatch.syncDirectories(Collections.singleton(dir));
+        }
+        return result;
+    }
+
+    /** Writes a pack holding ENTRIES, sorted by id, into DIR and returns
+     *  its index file.  The pack is named by the hash of its index, which
+     *  gives the id, kind, offset and length of every object, so two packs
+     *  of the same name agree on where each object is, and any index may
+     *  be read with any pack file of its name.  The pack file is installed
+     *  before the index file, so readers, which find packs by their index
+     *  files, never see a partial pack.  If DURABLE, both files are synced
+     *  before they are renamed. */
+    private static File writeOne(File dir, List<Entry> entries, boolean durable) {
+        File tempPack = null;
+        File tempIndex = null;
+        try {
+            tempPack = Files.createTempFile(dir.toPath(), "pack-", ".pack.tmp").toFile();
+            tempIndex = Files.createTempFile(dir.toPath(), "pack-", ".idx.tmp").toFile();
+            try (FileChannel out = FileChannel.open(tempPack.toPath(),
+                     StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                ByteBuffer header = ByteBuffer.allocate(PACK_HEADER_LENGTH);
+                header.putInt(PACK_MAGIC).putInt(VERSION).putInt(entries.size());
+                header.flip();
+                writeFully(out, header);
+                for (Entry entry : entries) {
+                    entry.offset = out.position();
+                    if (entry.file != null) {
+                        try (FileChannel in = FileChannel.open(entry.file.toPath(),
+                                 StandardOpenOption.READ)) {
+                            long size = in.size();
+                            long done = 0;
+                            while (done < size) {
+                                done += in.transferTo(done, size - done, out);
+                            }
+                        }
+                    } else {
+                        writeFully(out, entry.contents.duplicate());
+                    }
+                    entry.length = out.position() - entry.offset;
+                }
+                if (out.position() > MAX_SIZE) {
+                    throw new IllegalArgumentException("pack too large");
+                }
+            }
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            try (DataOutputStream out = new DataOutputStream(new DigestOutputStream(
+                     new BufferedOutputStream(new FileOutputStream(tempIndex)), md))) {
+                out.writeInt(INDEX_MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(entries.size());
+                int[] fanout = new int[256];
+                for (Entry entry : entries) {
+                    fanout[entry.raw[0] & 0xff] += 1;
+                }
+                int total = 0;
+                for (int bucket : fanout) {
+                    total += bucket;
+                    out.writeInt(total);
+                }
+                for (Entry entry : entries) {
+                    out.write(entry.raw);
+                }
+                for (Entry entry : entries) {
+                    out.writeByte(entry.kind);
+                }
+                for (Entry entry : entries) {
+                    out.writeLong(entry.offset);
+                }
+                for (Entry entry : entries) {
+                    out.writeLong(entry.length);
+                }
+            }
+            if (durable) {
+                WriteBatch.sync(tempPack);
+                WriteBatch.sync(tempIndex);
+            }
+            String name = "pack-" + CommitIndex.toHex(md.digest());
+            File packFile = new File(dir, name + ".pack");
+            File indexFile = new File(dir, name + ".idx");
+            if (!tempPack.renameTo(packFile) || !tempIndex.renameTo(indexFile)) {
+                throw new IllegalArgumentException("cannot install " + name);
+            }
+            return indexFile;
+        } catch (IOException | NoSuchAlgorithmException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            if (tempPack != null) {
+                tempPack.delete();
+            }
+            if (tempIndex != null) {
+                tempIndex.delete();
+            }
+        }
+    }
+
+    /** Writes all of BUF to OUT. */
+    private static void writeFully(FileChannel out, ByteBuffer buf)
+        throws IOException {
+        while (buf.hasRemaining()) {
+            out.write(buf);
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package gitlet;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static gitlet.Utils.*;
+
+/**
+ * The branches of a repository and the name of the current branch, kept
+ * in .gitlet/branch/NAME (the id of the commit at the tip of branch NAME)
+ * and .gitlet/HEAD (the name of the current branch).  Each file is read
+ * at most once; changes go through a WriteBatch, so that they reach the
+ * disk after the objects they refer to, and are seen at once by later
+ * reads through this object.
+ *
+ * @author KEVIN ZHU
+ */
+class Refs {
+    /** The HEAD file. */
+    private final File head;
+    /** The directory of branch files. */
+    private final File branchDir;
+    /** The batch through which refs are written. */
+    private final WriteBatch batch;
+    /** The name of the current branch, or null until first needed. */
+    private String current;
+    /** The tip of each branch, by name, or null until first needed. */
+    private TreeMap<String, String> tips;
+    /** Number of lookups answered without, and with, reading a file. */
+    private long hits, misses;
+
+    /** The refs stored in HEAD and BRANCHDIR, written through BATCH. */
+    Refs(File head, File branchDir, WriteBatch batch) {
+        this.head = head;
+        this.branchDir = branchDir;
+        this.batch = batch;
+    }
+
+    /** Returns the name of the current branch. */
+    String currentBranch() {
+        if (current == null) {
+            misses += 1;
+            current = readContentsAsString(head);
+        } else {
+            hits += 1;
+        }
+        return current;
+    }
+
+    /** Returns the id of the commit at the tip of the current branch. */
+    String headId() {
+        return tip(currentBranch());
+    }
+
+    /** Returns the id of the commit at the tip of branch NAME, or null if
+     *  there is no such branch. */
+    String tip(String name) {
+        Map<String, String> all = tips();
+        String result = all.get(name);
+        if (result == null && all.containsKey(name)) {
+            misses += 1;
+            result = readContentsAsString(new File(branchDir, name));
+            all.put(name, result);
+        } else {
+            hits += 1;
+        }
+        return result;
+    }
+
+    /** Returns the names of all branches, in order. */
+    List<String> branches() {
+        return new ArrayList<>(tips().keySet());
+    }
+
+    /** Makes NAME the current branch. */
+    void setCurrent(String name) {
+        current = name;
+        batch.updateRef(head, name);
+    }
+
+    /** Points branch NAME, which is created if necessary, at the commit
+     *  ID. */
+    void setTip(String name, String id) {
+        tips().put(name, id);
+        batch.updateRef(new File(branchDir, name), id);
+    }
+
+    /** Deletes branch NAME. */
+    void delete(String name) {
+        tips().remove(name);
+        new File(branchDir, name).delete();
+    }
+
+    /** Returns a summary of the lookups made so far. */
+    String stats() {
+        return String.format("refs %d hits, %d misses", hits, misses);
+    }
+
+    /** Returns the map of branch tips, in which the tips not yet read are
+     *  null, listing the branch directory if that has not been done. */
+    private TreeMap<String, String> tips() {
+        if (tips == null) {
+            tips = new TreeMap<>();
+            List<String> names = plainFilenamesIn(branchDir);
+            if (names != null) {
+                for (String name : names) {
+                    tips.put(name, null);
+                }
+            }
+        }
+        return tips;
+    }
+}
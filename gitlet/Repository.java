@@ -1,11 +1,32 @@
 package gitlet;
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
 import java.io.Serializable;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.HashSet;
 import java.util.Set;
-import java.util.Objects;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 import java.util.Arrays;
 import java.util.Map;
 import java.util.stream.Collectors;
@@ -26,6 +47,22 @@ public class Repository implements Serializable {
     File removed = join(GITLET_DIR, "remove");
     File branch = join(GITLET_DIR, "branch");
     File HEAD = join(GITLET_DIR, "HEAD");
+    File pack = join(GITLET_DIR, "pack");
+    File tree = join(GITLET_DIR, "tree");
+    File fanOut = join(GITLET_DIR, "fanout");
+    ObjectStore objects = new ObjectStore(commit, blob, tree, pack);
+    TreeStore trees;
+    CommitIndex commitIndex = new CommitIndex(join(GITLET_DIR, "commit-index"), objects);
+    CommitGraph commitGraph = new CommitGraph(join(GITLET_DIR, "commit-graph"), objects);
+    MessageIndex messageIndex = new MessageIndex(join(GITLET_DIR, "message-index"), objects);
+    CommitJournal journal = new CommitJournal(join(GITLET_DIR, "journal"),
+            join(GITLET_DIR, "journal-messages"), objects);
+    Config config = new Config(join(GITLET_DIR, "config"));
+    BlobStore blobs;
+    StatCache statCache = new StatCache(join(GITLET_DIR, "index"), CWD);
+    StagingArea staging;
+    Refs refs = new Refs(HEAD, branch, objects.batch());
+    ObjectCache<Commit> commitCache;
 
     /**
      * The current working directory.
@@ -35,118 +72,281 @@ public class Repository implements Serializable {
      * The .gitlet directory.
      */
     public static final File GITLET_DIR = join(CWD, ".gitlet");
+    /**
+     * The first line of a file left in conflict by merge.
+     */
+    private static final byte[] CONFLICT_START =
+            "<<<<<<< HEAD\n".getBytes(StandardCharsets.UTF_8);
+    /**
+     * The most threads that checkout uses to write files.
+     */
+    private static final int CHECKOUT_THREADS = 8;
+    /**
+     * Default age, in seconds, below which gc keeps unreachable objects.
+     */
+    static final long GC_GRACE = 14 * 24 * 60 * 60;
+    /**
+     * Age, in milliseconds, below which gc keeps the temporary files of
+     * writes, which may still be in progress.
+     */
+    private static final long TEMP_GRACE = 60 * 60 * 1000;
+    /**
+     * The most decoded commits that a command keeps in memory.
+     */
+    private static final long COMMIT_CACHE_SIZE = 4096;
+
+    /**
+     * Caches of decoded commits, trees and blob contents.  An object never
+     * changes once stored under its id, so Repositories for successive
+     * commands in one JVM, such as the daemon's, may share one.
+     */
+    static class Caches {
+        /** Decoded commits, by id. */
+        final ObjectCache<Commit> commits =
+                new ObjectCache<>("commits", COMMIT_CACHE_SIZE, c -> 1);
+        /** Decoded trees, by id. */
+        final ObjectCache<Tree> trees =
+                new ObjectCache<>("trees", TreeStore.CACHE_SIZE, t -> 1);
+        /** Blob contents, by id. */
+        final ObjectCache<byte[]> blobs =
+                new ObjectCache<>("blobs", BlobStore.CACHE_LIMIT, c -> c.length);
+    }
+
+    /**
+     * A repository in the current directory, with caches of its own.
+     */
+    public Repository() {
+        this(new Caches());
+    }
+
+    /**
+     * A repository in the current directory that keeps the objects it
+     * decodes in CACHES.
+     */
+    Repository(Caches caches) {
+        trees = new TreeStore(objects, caches.trees);
+        blobs = new BlobStore(objects, config, caches.blobs);
+        staging = new StagingArea(join(GITLET_DIR, "staging"), stage, removed, blobs);
+        commitCache = caches.commits;
+    }
 
     public void init() {
         if (GITLET_DIR.exists()) {
-            System.out.println("A Gitlet version-control system "
+            throw error("A Gitlet version-control system "
                     + "already exists in the current directory.");
-            System.exit(0);
         } else {
             GITLET_DIR.mkdir();
             blob.mkdir();
             commit.mkdir();
-            stage.mkdir();
             branch.mkdir();
-            removed.mkdir();
-            Commit initial = new Commit("initial commit", null, new HashMap<String, String>());
+            pack.mkdir();
+            tree.mkdir();
+            writeContents(fanOut);
+            Commit initial = new Commit("initial commit", null, trees.write(Tree.EMPTY));
             initial.initialTimeSet();
-            File file = new File(commit, initial.getId());
-            writeObject(file, initial);
-            File bran = new File(branch, "master");
-            writeContents(bran, initial.getId());
-            writeContents(HEAD, "master");
+            messageIndex.add(initial);
+            journal.add(initial);
+            objects.write(ObjectStore.COMMIT, initial.getId(), initial.encode());
+            commitIndex.add(initial.getId());
+            commitGraph.add(initial);
+            refs.setTip("master", initial.getId());
+            refs.setCurrent("master");
         }
     }
 
-    public void add(String fileName) {
-        File file = new File(fileName);
-        boolean cwdExists = new File(CWD, fileName).exists();
-        if (!cwdExists) {
-            System.out.println("File does not exist.");
-            System.exit(0);
-        } else {
-            File stagePointer = new File(stage, fileName);
-            String fileContents = readContentsAsString(file);
-            boolean stageExists = new File(stage, fileName).exists();
-            if (!stageExists) {
-                writeContents(stagePointer, readContentsAsString(file));
+    /**
+     * Finishes the command just run, holding the repository lock: appends
+     * its new commits to the message index, journal and commit graph,
+     * which tolerate records of commits that do not exist, then commits
+     * the objects and refs it wrote, syncing them to the disk unless
+     * core.fsync is false, and then records its new commits in the commit
+     * index and saves the staging area, both of which may refer to the
+     * new objects.
+     */
+    public void flush() {
+        locked(() -> {
+            messageIndex.flush();
+            journal.flush();
+            commitGraph.flush();
+            objects.batch().commit(config.getBoolean(Config.FSYNC, true));
+            commitIndex.flush();
+            staging.save();
+        });
+        debug("cache: %s; %s; %s", commitCache.stats(), blobs.cacheStats(), refs.stats());
+    }
+
+    /**
+     * Deletes the objects that no branch, and nothing staged, refers to
+     * and that are at least GRACE seconds old, and reports how many bytes
+     * that freed.  Holds the repository lock throughout, so commands that
+     * finish meanwhile wait to publish their objects and refs.
+     */
+    public void gc(long grace) {
+        long now = System.currentTimeMillis();
+        locked(() -> {
+            List<String> heads = new ArrayList<>();
+            for (String name : refs.branches()) {
+                heads.add(refs.tip(name));
             }
-            String stageContents = readContentsAsString(stagePointer);
-            boolean sameCheck = stageContents.equals(fileContents);
-            if (!sameCheck) {
-                writeContents(stagePointer, readContentsAsString(file));
+            List<String> staged = new ArrayList<>();
+            for (StagingArea.Entry entry : staging.entries().values()) {
+                if (!entry.isRemoval()) {
+                    staged.add(entry.id);
+                }
             }
-            Commit mostRecentCommit = getNewestCommit();
-            HashMap<String, String> tracked = mostRecentCommit.getTracked();
-            boolean isEmptyBlob = Objects.requireNonNull(plainFilenamesIn(blob)).isEmpty();
-            boolean inBlobMap = tracked.containsKey(fileName);
-            if (!isEmptyBlob && inBlobMap) {
-                File blobPointer = new File(blob, tracked.get(fileName));
-                String blobContents = readContentsAsString(blobPointer);
-                File removePointer = new File(removed, fileName);
-                boolean blobCheck = blobContents.equals(fileContents);
-                if (blobCheck) {
-                    stagePointer.delete();
-                    removePointer.delete();
+            long[] result = new GarbageCollector(objects, blobs).collect(heads, staged,
+                    now - grace * 1000, Math.min(now - grace * 1000, now - TEMP_GRACE),
+                    config.getBoolean(Config.FSYNC, true));
+            if (result[0] > 0) {
+                commitIndex.rebuild();
+                messageIndex.rebuild();
+            }
+            System.out.println("Removed " + result[0] + " objects, reclaimed "
+                    + result[1] + " bytes.");
+        });
+    }
+
+    /**
+     * Brings a repository made by an earlier version of gitlet, which
+     * kept loose objects directly in the directory for their kind, up to
+     * date by moving them into fan-out directories (see ObjectStore),
+     * holding the repository lock.  The file .gitlet/fanout marks a
+     * repository whose objects need no moving.
+     */
+    public void migrate() {
+        if (fanOut.exists() || !GITLET_DIR.isDirectory()) {
+            return;
+        }
+        locked(() -> {
+            if (!fanOut.exists()) {
+                int moved = objects.fanOut();
+                writeContents(fanOut);
+                debug("migrate: moved %d loose objects into fan-out directories", moved);
+            }
+        });
+    }
+
+    /**
+     * Runs ACTION holding the repository lock, .gitlet/lock, which gc
+     * holds while it works and each command holds while it flushes.
+     */
+    private void locked(Runnable action) {
+        if (!GITLET_DIR.isDirectory()) {
+            action.run();
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(join(GITLET_DIR, "lock").toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            FileLock lock = channel.lock();
+            try {
+                action.run();
+            } finally {
+                lock.release();
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    public void add(String... paths) {
+        List<String> fileNames = new ArrayList<>();
+        for (String path : paths) {
+            File file = join(CWD, path);
+            if (isWorkingDirectory(file)) {
+                fileNames.addAll(filesIn(CWD));
+            } else if (file.isDirectory()) {
+                String dir = pathOf(file);
+                for (String name : filesIn(file)) {
+                    fileNames.add(dir + "/" + name);
                 }
+            } else if (!file.exists()) {
+                throw error("File does not exist.");
+            } else {
+                fileNames.add(pathOf(file));
             }
         }
+        String headTree = treeOf(getNewestCommit());
+        ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+        try {
+            pool.submit(() -> fileNames.parallelStream().distinct()
+                    .forEach(fileName -> stageFile(fileName,
+                            trees.entry(headTree, fileName)))).get();
+        } catch (InterruptedException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } catch (ExecutionException excp) {
+            throw new IllegalArgumentException(excp.getCause().getMessage());
+        } finally {
+            pool.shutdown();
+        }
+        statCache.save();
+    }
+
+    /**
+     * Stages the working file FILENAME, storing its blob, unless its
+     * contents and mode are those of TRACKED, its entry in the head commit
+     * (or null), in which case it is unstaged instead.  Safe to call for
+     * different files at once.
+     */
+    private void stageFile(String fileName, Tree.Entry tracked) {
+        File file = join(CWD, fileName);
+        boolean executable = file.canExecute();
+        if (tracked != null && tracked.executable == executable
+                && blobs.contains(tracked.id) && sameContents(tracked.id, file)) {
+            staging.unstage(fileName);
+            return;
+        }
+        String fileId = statCache.id(file);
+        StagingArea.Entry staged = staging.get(fileName);
+        if (staged == null || !fileId.equals(staged.id) || staged.executable != executable) {
+            blobs.write(fileId, file);
+            staging.add(fileName, fileId, executable);
+        }
     }
 
+    /**
+     * Makes a commit with MESSAGE of the changes in the staging area.
+     * Their blobs were stored when they were staged, so only trees and
+     * the commit itself are written here.
+     */
     public void commit(String message) {
-        if ((plainFilenamesIn(stage)).isEmpty() && (plainFilenamesIn(removed)).isEmpty()) {
-            System.out.println("No changes added to the commit.");
-            System.exit(0);
+        if (staging.isEmpty()) {
+            throw error("No changes added to the commit.");
         } else {
-            Set<String> stageSet = new HashSet<>(Arrays.asList(stage.list()));
-            Set<String> removeSet = new HashSet<>(Arrays.asList(removed.list()));
             Commit mostRecentCommit = getNewestCommit();
-            HashMap<String, String> tracked = mostRecentCommit.getTracked();
-            HashMap<String, String> trackCopy = new HashMap<>();
-            for (String fileName : tracked.keySet()) {
-                if (!stageSet.contains(fileName) && !removeSet.contains(fileName)) {
-                    trackCopy.put(fileName, tracked.get(fileName));
-                }
-            }
-            for (String fileName : stageSet) {
-                File file = new File(stage, fileName);
-                File writeFile = new File(blob, getId(file));
-                writeContents(writeFile, readContentsAsString(file));
-                trackCopy.put(fileName, getId(file));
+            Map<String, Tree.Entry> changes = new HashMap<>();
+            for (Map.Entry<String, StagingArea.Entry> item : staging.entries().entrySet()) {
+                StagingArea.Entry entry = item.getValue();
+                changes.put(item.getKey(), entry.isRemoval()
+                        ? null : new Tree.Entry(entry.id, false, entry.executable));
             }
-            clear(stage);
-            clear(removed);
-            Commit newCommit = new Commit(message, mostRecentCommit.getId(), trackCopy);
+            String newTree = trees.update(treeOf(mostRecentCommit), changes);
+            Commit newCommit = new Commit(message, mostRecentCommit.getId(), newTree);
             if (message.contains("Merge")) {
                 String[] second = message.split(" ");
-                File branchPointer = new File(branch, second[1]);
-                String branchId = readContentsAsString(branchPointer);
-                newCommit.setMergeParent(branchId);
+                newCommit.setMergeParent(refs.tip(second[1]));
             }
-            File file = new File(commit, newCommit.getId());
-            writeObject(file, newCommit);
-            File bran = new File(branch, readContentsAsString(HEAD));
-            writeContents(bran, newCommit.getId());
+            messageIndex.add(newCommit);
+            journal.add(newCommit);
+            objects.write(ObjectStore.COMMIT, newCommit.getId(), newCommit.encode());
+            commitIndex.add(newCommit.getId());
+            commitGraph.add(newCommit);
+            refs.setTip(refs.currentBranch(), newCommit.getId());
+            staging.clear();
         }
     }
 
     public void checkout(String[] args) {
         if (args.length == 2) {
             String branchName = args[1];
-            List<String> branchList = plainFilenamesIn(branch);
-            File bran = new File(this.branch, branchName);
-            String branchHead = readContentsAsString(HEAD);
-            if (!branchList.contains(branchName)) {
-                System.out.println("No such branch exists.");
-                System.exit(0);
-            }
-            if (branchHead.equals(branchName)) {
-                System.out.println("No need to checkout the current branch.");
-                System.exit(0);
-            }
-            String branchId = readContentsAsString(bran);
+            String branchId = refs.tip(branchName);
+            if (branchId == null) {
+                throw error("No such branch exists.");
+            }
+            if (refs.currentBranch().equals(branchName)) {
+                throw error("No need to checkout the current branch.");
+            }
             checkoutBranch(branchId);
-            writeContents(HEAD, branchName);
+            refs.setCurrent(branchName);
         } else if (args.length == 3) {
             String fileName = args[2];
             checkoutFileName(fileName);
@@ -155,74 +355,117 @@ public class Repository implements Serializable {
             String fileName = args[3];
             checkoutCommitId(commitId, fileName);
         } else {
-            System.out.println("Incorrect operands.");
-            System.exit(0);
+            throw error("Incorrect operands.");
         }
     }
 
+    /**
+     * Makes the working directory match the commit BRANCHID, for checkout
+     * and reset.  The files to delete, and those to write because the two
+     * commits differ, come from a diff of their trees, which skips
+     * identical subtrees.  A file the commits share must still be
+     * rewritten if its working copy has changed, and no tree tells which
+     * have, so every file of BRANCHID is still visited: the stat cache
+     * vouches for an unchanged one with a stat, and only a file it cannot
+     * vouch for is compared with its blob.
+     */
     private void checkoutBranch(String branchId) {
-        Set<String> cwdSet = new HashSet<>(Arrays.asList(CWD.list()));
-        HashMap<String, String> tracked = getNewestCommit().getTracked();
-        HashMap<String, String> branchTracked = getCommit(branchId).getTracked();
-        for (String fileName : cwdSet) {
-            File current = new File(CWD, fileName);
-            if (!current.isDirectory()) {
-                if (tracked.containsKey(fileName) && !branchTracked.containsKey(fileName)
-                        && plainFilenamesIn(removed).contains(fileName)) {
-                    System.out.println("There is an untracked file in the way; "
+        String branchTree = treeOf(getCommit(branchId));
+        Map<String, String[]> differences = trees.diff(treeOf(getNewestCommit()), branchTree);
+        Set<String> removeSet = new HashSet<>(staging.removed());
+        for (Map.Entry<String, String[]> entry : differences.entrySet()) {
+            String fileName = entry.getKey();
+            String[] ids = entry.getValue();
+            if (join(CWD, fileName).isFile()) {
+                if (ids[0] != null && ids[1] == null && removeSet.contains(fileName)) {
+                    throw error("There is an untracked file in the way; "
                             + "delete it, or add and commit it first.");
-                    System.exit(0);
-                } else if (!tracked.containsKey(fileName)
-                        && branchTracked.containsKey(fileName)) {
-                    System.out.println("There is an untracked file in the way; delete it,"
+                } else if (ids[0] == null && ids[1] != null) {
+                    throw error("There is an untracked file in the way; delete it,"
                             + " or add and commit it first.");
-                    System.exit(0);
                 }
             }
         }
-        for (String fileName : tracked.keySet()) {
-            if (!branchTracked.containsKey(fileName)) {
-                File file = new File(CWD, fileName);
-                file.delete();
+        Map<String, String> changed = new HashMap<>();
+        for (Map.Entry<String, String[]> entry : differences.entrySet()) {
+            if (entry.getValue()[1] == null) {
+                deletePath(CWD, entry.getKey());
+            } else {
+                changed.put(entry.getKey(), entry.getValue()[1]);
             }
         }
-        for (Map.Entry<String, String> entry : branchTracked.entrySet()) {
+        for (Map.Entry<String, String> entry : trees.files(branchTree).entrySet()) {
             String fileName = entry.getKey();
-            String fileSha1 = entry.getValue();
-            File fileMaker = new File(CWD, fileName);
-            File fileContentPointer = new File(blob, fileSha1);
-            String fileContents = (readContentsAsString(fileContentPointer));
-            writeContents(fileMaker, fileContents);
+            File fileMaker = join(CWD, fileName);
+            if (!changed.containsKey(fileName) && (!fileMaker.isFile()
+                    || !sameContents(entry.getValue(), fileMaker))) {
+                changed.put(fileName, entry.getValue());
+            }
         }
-        clear(stage);
-        clear(removed);
+        writeFiles(changed, branchTree);
+        staging.clear();
+        statCache.save();
+    }
+
+    /**
+     * Writes the contents of each blob in FILES, a map from file names to
+     * blob ids, to the working file of that name, with the mode the file
+     * has in the tree ROOT, using at most CHECKOUT_THREADS threads.
+     */
+    private void writeFiles(Map<String, String> files, String root) {
+        ExecutorService pool = Executors.newFixedThreadPool(
+                Math.min(CHECKOUT_THREADS, Math.max(1, files.size())));
+        long bytes = 0;
+        try {
+            List<Future<Long>> written = new ArrayList<>();
+            for (Map.Entry<String, String> entry : files.entrySet()) {
+                File dest = new File(CWD, entry.getKey());
+                written.add(pool.submit(() -> checkoutBlob(entry.getValue(),
+                        trees.entry(root, entry.getKey()).executable, dest)));
+            }
+            for (Future<Long> result : written) {
+                bytes += result.get();
+            }
+        } catch (InterruptedException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } catch (ExecutionException excp) {
+            throw new IllegalArgumentException(excp.getCause().getMessage());
+        } finally {
+            pool.shutdown();
+        }
+        debug("checkout: wrote %d files, %d bytes", files.size(), bytes);
+    }
+
+    /**
+     * Writes the contents of the blob ID to DEST, making DEST executable
+     * iff EXECUTABLE, and returns the number of bytes written.
+     */
+    private long checkoutBlob(String id, boolean executable, File dest) {
+        long result = blobs.copyTo(id, dest);
+        if (dest.canExecute() != executable) {
+            dest.setExecutable(executable, false);
+        }
+        return result;
     }
 
     private void checkoutFileName(String fileName) {
         Commit mostRecentCommit = getNewestCommit();
-        HashMap<String, String> tracked = mostRecentCommit.getTracked();
-        if (tracked.containsKey(fileName)) {
-            String value = tracked.get(fileName);
-            File blobFile = new File(blob, value);
-            String blobContents = readContentsAsString(blobFile);
-            File checkoutFile = new File(CWD, fileName);
-            writeContents(checkoutFile, blobContents);
+        Tree.Entry value = trees.entry(treeOf(mostRecentCommit), pathOf(join(CWD, fileName)));
+        if (value != null) {
+            File checkoutFile = join(CWD, fileName);
+            checkoutBlob(value.id, value.executable, checkoutFile);
         } else {
-            System.out.println("File does not exist in that commit.");
-            System.exit(0);
+            throw error("File does not exist in that commit.");
         }
     }
 
     private void checkoutCommitId(String commitId, String fileName) {
         if (getCommit(commitId) != null) {
             Commit oldCommit = getCommit(commitId);
-            HashMap<String, String> tracked = oldCommit.getTracked();
-            if (tracked.containsKey(fileName)) {
-                String value = tracked.get(fileName);
-                File blobFile = new File(blob, value);
-                String blobContents = readContentsAsString(blobFile);
-                File checkoutFile = new File(CWD, fileName);
-                writeContents(checkoutFile, blobContents);
+            Tree.Entry value = trees.entry(treeOf(oldCommit), pathOf(join(CWD, fileName)));
+            if (value != null) {
+                File checkoutFile = join(CWD, fileName);
+                checkoutBlob(value.id, value.executable, checkoutFile);
                 return;
             } else {
                 System.out.println("File does not exist in that commit.");
@@ -234,27 +477,21 @@ public class Repository implements Serializable {
 
     public void status() {
         System.out.println("=== Branches ===");
-        Set<String> branchSet = new HashSet<>(Arrays.asList(branch.list()));
-        List<String> sortedBranch = branchSet.stream().sorted().collect(Collectors.toList());
-        for (String fileName : sortedBranch) {
-            if (fileName.equals(readContentsAsString(HEAD))) {
-                System.out.println("*" + readContentsAsString(HEAD));
+        for (String fileName : refs.branches()) {
+            if (fileName.equals(refs.currentBranch())) {
+                System.out.println("*" + fileName);
             } else {
                 System.out.println(fileName);
             }
         }
         System.out.println("");
         System.out.println("=== Staged Files ===");
-        Set<String> stageSet = new HashSet<>(Arrays.asList(stage.list()));
-        List<String> sortedSet = stageSet.stream().sorted().collect(Collectors.toList());
-        for (String fileName : sortedSet) {
+        for (String fileName : staging.added()) {
             System.out.println(fileName);
         }
         System.out.println("");
         System.out.println("=== Removed Files ===");
-        Set<String> removeSet = new HashSet<>(Arrays.asList(removed.list()));
-        List<String> sortedRemove = removeSet.stream().sorted().collect(Collectors.toList());
-        for (String fileName : sortedRemove) {
+        for (String fileName : staging.removed()) {
             System.out.println(fileName);
         }
         System.out.println("");
@@ -271,6 +508,7 @@ public class Repository implements Serializable {
         }
         System.out.println("");
         System.out.println("");
+        statCache.save();
     }
 
     public void log() {
@@ -281,17 +519,14 @@ public class Repository implements Serializable {
             if (mostRecentCommit.getMessage().contains("Merged")) {
                 String mergeMsg = mostRecentCommit.getMessage();
                 String[] second = mergeMsg.split(" ");
-                File branchPointer = new File(branch, second[1]);
-                String branchId = readContentsAsString(branchPointer);
-                Commit branchCommit = getCommit(branchId);
+                Commit branchCommit = getCommit(refs.tip(second[1]));
                 System.out.println("Merge: " + mostRecentCommit.getParent().substring(0, 7)
                         + " " + branchCommit.getParent().substring(0, 7));
             }
             System.out.println("Date: " + mostRecentCommit.getTime());
             System.out.println(mostRecentCommit.getMessage() + "\n");
             if (mostRecentCommit.getParent() != null) {
-                File commitName = new File(commit, mostRecentCommit.getParent());
-                mostRecentCommit = readObject(commitName, Commit.class);
+                mostRecentCommit = readCommit(mostRecentCommit.getParent());
             } else {
                 break;
             }
@@ -299,120 +534,247 @@ public class Repository implements Serializable {
     }
 
     public void branch(String branchName) {
-        File branchPointer = new File(branch, branchName);
-        if (branchPointer.exists()) {
+        if (refs.tip(branchName) != null) {
             System.out.println("A branch with that name already exists.");
         } else {
-            Commit mostRecentCommit = getNewestCommit();
-            String commitId = mostRecentCommit.getId();
-            writeContents(branchPointer, commitId);
+            refs.setTip(branchName, refs.headId());
         }
     }
 
     public void find(String commitMessage) {
-        Set<String> commitSet = new HashSet<>(Arrays.asList(commit.list()));
-        boolean found = false;
-        for (String fileName : commitSet) {
-            File commitPointer = new File(commit, fileName);
-            Commit current = readObject(commitPointer, Commit.class);
-            if (current.getMessage().equals(commitMessage)) {
-                System.out.println(current.getId());
-                found = true;
-            }
-        }
-        if (!found) {
+        printFound(messageIndex.find(commitMessage));
+    }
+
+    /**
+     * Prints the ids of the commits whose messages contain every word of
+     * WORDS, ignoring case and punctuation.
+     */
+    public void findGrep(String words) {
+        printFound(messageIndex.grep(words));
+    }
+
+    /**
+     * Prints the commit IDS found by find, one per line.
+     */
+    private void printFound(List<String> ids) {
+        if (ids.isEmpty()) {
             System.out.println("Found no commit with that message.");
         }
+        for (String id : ids) {
+            System.out.println(id);
+        }
     }
 
-    public void remove(String fileName) {
-        HashMap<String, String> tracked = getNewestCommit().getTracked();
-        Set<String> blobSet = new HashSet<>(Arrays.asList(blob.list()));
-        Set<String> stageSet = new HashSet<>(Arrays.asList(stage.list()));
-        boolean stageFound = false;
-        if (stageSet.contains(fileName)) {
-            stageFound = true;
-            File file = new File(stage, fileName);
-            file.delete();
-        }
-        boolean trackFound = false;
-        if (tracked.containsKey(fileName)) {
-            trackFound = true;
-            File removeCurr = new File(CWD, fileName);
-            if (removeCurr.exists()) {
-                removeCurr.delete();
-            }
-            String removeSha1 = tracked.get(fileName);
-            for (String fileN : blobSet) {
-                if (fileN.equals(removeSha1)) {
-                    File blobPointer = new File(blob, removeSha1);
-                    String removeContents = readContentsAsString((blobPointer));
-                    File moveTo = new File(removed, fileName);
-                    writeContents(moveTo, removeContents);
+    public void remove(String... paths) {
+        String headTree = treeOf(getNewestCommit());
+        Set<String> stageSet = new HashSet<>(staging.added());
+        Map<String, String> tracked = new HashMap<>();
+        Set<String> fileNames = new TreeSet<>();
+        for (String path : paths) {
+            File file = join(CWD, path);
+            if (isWorkingDirectory(file)) {
+                tracked = trees.files(headTree);
+                fileNames.addAll(tracked.keySet());
+                fileNames.addAll(stageSet);
+                continue;
+            }
+            String fileName = pathOf(file);
+            String trackedId = trees.lookup(headTree, fileName);
+            if (stageSet.contains(fileName) || trackedId != null) {
+                fileNames.add(fileName);
+                if (trackedId != null) {
+                    tracked.put(fileName, trackedId);
+                }
+                continue;
+            }
+            boolean found = false;
+            for (String name : stageSet) {
+                if (name.startsWith(fileName + "/")) {
+                    fileNames.add(name);
+                    found = true;
+                }
+            }
+            for (Map.Entry<String, String> entry : trees.files(headTree).entrySet()) {
+                if (entry.getKey().startsWith(fileName + "/")) {
+                    fileNames.add(entry.getKey());
+                    tracked.put(entry.getKey(), entry.getValue());
+                    found = true;
                 }
             }
+            if (!found) {
+                throw error("No reason to remove the file.");
+            }
         }
-        if (stageFound || trackFound) {
-            return;
-        } else {
-            System.out.println("No reason to remove the file.");
-            System.exit(0);
+        for (String fileName : fileNames) {
+            if (stageSet.contains(fileName)) {
+                staging.unstage(fileName);
+            }
+            if (tracked.containsKey(fileName)) {
+                deletePath(CWD, fileName);
+                staging.remove(fileName);
+            }
         }
     }
 
-    public void global() {
-        Set<String> commitSet = new HashSet<>(Arrays.asList(commit.list()));
-        for (String fileName : commitSet) {
-            File commitPointer = new File(commit, fileName);
-            Commit current = readObject(commitPointer, Commit.class);
-            System.out.println("===");
-            System.out.println("commit " + current.getId());
-            System.out.println("Date: " + current.getTime());
-            System.out.println(current.getMessage() + "\n");
+    public void diff(String... args) {
+        HashMap<String, String> tracked = trackedFiles(getNewestCommit());
+        Set<String> stageSet = new HashSet<>(staging.added());
+        Set<String> removeSet = new HashSet<>(staging.removed());
+        Set<String> indexed = new TreeSet<>(tracked.keySet());
+        indexed.addAll(stageSet);
+        indexed.removeAll(removeSet);
+        OutputStream out = new BufferedOutputStream(System.out);
+        try {
+            if (args.length == 0) {
+                for (String fileName : indexed) {
+                    File working = join(CWD, fileName);
+                    String indexId = stageSet.contains(fileName)
+                            ? staging.get(fileName).id : tracked.get(fileName);
+                    boolean exists = working.isFile();
+                    if (!exists || !sameContents(indexId, working)) {
+                        byte[] indexContents = blobs.readBytes(indexId);
+                        Diff.unified(fileName, indexContents, exists ? fileName : null,
+                                exists ? readContents(working) : new byte[0], out);
+                    }
+                }
+            } else if (args.length == 1 && args[0].equals("--cached")) {
+                Set<String> names = new TreeSet<>(stageSet);
+                names.addAll(removeSet);
+                for (String fileName : names) {
+                    String headId = tracked.get(fileName);
+                    byte[] headContents = headId == null ? new byte[0] : blobs.readBytes(headId);
+                    if (removeSet.contains(fileName)) {
+                        if (headId != null) {
+                            Diff.unified(fileName, headContents, null, new byte[0], out);
+                        }
+                        continue;
+                    }
+                    String stagedId = staging.get(fileName).id;
+                    if (!stagedId.equals(headId)) {
+                        Diff.unified(headId == null ? null : fileName, headContents,
+                                fileName, blobs.readBytes(stagedId), out);
+                    }
+                }
+            } else if (args.length == 2) {
+                Commit first = getCommit(args[0]);
+                Commit second = getCommit(args[1]);
+                if (first == null || second == null) {
+                    throw error("No commit with that id exists.");
+                }
+                for (Map.Entry<String, String[]> entry
+                        : trees.diff(treeOf(first), treeOf(second)).entrySet()) {
+                    String fileName = entry.getKey();
+                    String oldId = entry.getValue()[0];
+                    String newId = entry.getValue()[1];
+                    Diff.unified(oldId == null ? null : fileName,
+                            oldId == null ? new byte[0] : blobs.readBytes(oldId),
+                            newId == null ? null : fileName,
+                            newId == null ? new byte[0] : blobs.readBytes(newId), out);
+                }
+            } else {
+                throw error("Incorrect operands.");
+            }
+            out.flush();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
         }
+        statCache.save();
+    }
+
+    public void global() {
+        global(Long.MAX_VALUE);
+    }
+
+    /**
+     * Prints the first LIMIT commits ever made, oldest first, as they are
+     * read from the commit journal.
+     */
+    public void global(long limit) {
+        PrintStream out = new PrintStream(new BufferedOutputStream(System.out), false);
+        journal.scan(limit, entry -> {
+            out.println("===");
+            out.println("commit " + entry.id);
+            out.println("Date: " + (entry.legacy ? readCommit(entry.id).getTime()
+                    : Commit.formatTime(entry.time)));
+            out.println(entry.message + "\n");
+        });
+        out.flush();
     }
 
     public void reset(String commitId) {
         if (getCommit(commitId) == null) {
-            System.out.println("No commit with that id exists.");
-            System.exit(0);
+            throw error("No commit with that id exists.");
         }
         checkoutBranch(commitId);
-        File branchPointer = new File(branch, readContentsAsString(HEAD));
-        writeContents(branchPointer, getCommit(commitId).getId());
+        refs.setTip(refs.currentBranch(), getCommit(commitId).getId());
+    }
+
+    /**
+     * Packs every object, storing blobs as deltas against earlier versions
+     * of the same file where that is smaller.  Holds the repository lock
+     * throughout, as gc does, so that no other command publishes or
+     * deletes objects while packs are installed and loose objects removed.
+     */
+    public void repack() {
+        locked(() -> {
+            List<Commit> commits = new ArrayList<>();
+            for (String commitId : objects.list(ObjectStore.COMMIT)) {
+                commits.add(readCommit(commitId));
+            }
+            commits.sort(Comparator.comparingLong(Commit::getTimestamp));
+            Map<String, List<String>> histories = new HashMap<>();
+            for (Commit current : commits) {
+                for (Map.Entry<String, String> entry : trackedFiles(current).entrySet()) {
+                    List<String> history = histories.computeIfAbsent(entry.getKey(),
+                            k -> new ArrayList<>());
+                    if (history.isEmpty()
+                            || !history.get(history.size() - 1).equals(entry.getValue())) {
+                        history.add(entry.getValue());
+                    }
+                }
+            }
+            Map<String, String> bases = BlobStore.chooseBases(histories.values());
+            objects.repack(id -> blobs.repackedForm(id, bases),
+                           config.getBoolean(Config.FSYNC, true));
+        });
     }
 
     public void removeBranch(String branchName) {
-        String headPointer = readContentsAsString(HEAD);
-        if (!plainFilenamesIn(branch).contains(branchName)) {
-            System.out.println("A branch with that name does not exist.");
-            System.exit(0);
+        if (refs.tip(branchName) == null) {
+            throw error("A branch with that name does not exist.");
         }
-        if (branchName.equals(headPointer)) {
-            System.out.println("Cannot remove the current branch.");
-            System.exit(0);
+        if (branchName.equals(refs.currentBranch())) {
+            throw error("Cannot remove the current branch.");
         }
-        File rmBranch = new File(branch, branchName);
-        rmBranch.delete();
+        refs.delete(branchName);
     }
 
     public void merge(String branchName) {
-        List<String> branchList = plainFilenamesIn(branch);
-        List<String> stageList = plainFilenamesIn(stage);
-        List<String> removeList = plainFilenamesIn(removed);
+        List<String> branchList = refs.branches();
+        List<String> stageList = staging.added();
+        List<String> removeList = staging.removed();
         String mergedConflict = "";
         if (mergeError(stageList, removeList, branchList, branchName)) {
-            System.exit(0);
+            throw new GitletException();
         } else {
             Commit splitPoint = splitPoint(branchName);
-            File branchPointer = new File(branch, branchName);
-            Commit branchCommit = getCommit(readContentsAsString(branchPointer));
-            HashMap<String, String> tracked = getNewestCommit().getTracked();
-            HashMap<String, String> splitTracked = splitPoint.getTracked();
-            HashMap<String, String> branchTracked = branchCommit.getTracked();
-            Set<String> allFiles = new HashSet<>(tracked.keySet());
-            allFiles.addAll(splitTracked.keySet());
-            allFiles.addAll(branchTracked.keySet());
+            Commit branchCommit = getCommit(refs.tip(branchName));
+            String splitTree = treeOf(splitPoint);
+            Map<String, String[]> ours = trees.diff(splitTree, treeOf(getNewestCommit()));
+            Map<String, String[]> theirs = trees.diff(splitTree, treeOf(branchCommit));
+            Set<String> allFiles = new TreeSet<>(ours.keySet());
+            allFiles.addAll(theirs.keySet());
+            HashMap<String, String> tracked = new HashMap<>();
+            HashMap<String, String> splitTracked = new HashMap<>();
+            HashMap<String, String> branchTracked = new HashMap<>();
+            for (String fileName : allFiles) {
+                String base = (ours.containsKey(fileName) ? ours : theirs).get(fileName)[0];
+                putIfPresent(splitTracked, fileName, base);
+                putIfPresent(tracked, fileName,
+                        ours.containsKey(fileName) ? ours.get(fileName)[1] : base);
+                putIfPresent(branchTracked, fileName,
+                        theirs.containsKey(fileName) ? theirs.get(fileName)[1] : base);
+            }
             for (String fileName : allFiles) {
                 if (splitTracked.containsKey(fileName) && tracked.containsKey(fileName)
                         && branchTracked.containsKey(fileName)) {
@@ -427,20 +789,16 @@ public class Repository implements Serializable {
                         mergedConflict += "conflict ";
                     } else if (!splitTracked.get(fileName).equals(tracked.get(fileName))
                             && !branchTracked.get(fileName).equals(tracked.get(fileName))) {
-                        File trackBlobPointer = new File(blob, tracked.get(fileName));
-                        File branchBlobPointer = new File(blob, branchTracked.get(fileName));
+                        String trackBlob = tracked.get(fileName);
+                        String branchBlob = branchTracked.get(fileName);
                         File cwdPointer = new File(CWD, fileName);
                         mergedConflict += "conflict ";
-                        if (trackBlobPointer.exists() && branchBlobPointer.exists()) {
-                            String trackContents = readContentsAsString(trackBlobPointer);
-                            String branchContents = readContentsAsString(branchBlobPointer);
-                            mergeConflict(cwdPointer, trackContents, branchContents);
-                        } else if (!trackBlobPointer.exists() && branchBlobPointer.exists()) {
-                            String branchContents = readContentsAsString(branchBlobPointer);
-                            mergeConflict(cwdPointer, "", branchContents);
+                        if (blobs.contains(trackBlob) && blobs.contains(branchBlob)) {
+                            mergeConflict(cwdPointer, trackBlob, branchBlob);
+                        } else if (!blobs.contains(trackBlob) && blobs.contains(branchBlob)) {
+                            mergeConflict(cwdPointer, null, branchBlob);
                         } else {
-                            String trackContents = readContentsAsString(trackBlobPointer);
-                            mergeConflict(cwdPointer, trackContents, "");
+                            mergeConflict(cwdPointer, trackBlob, null);
                         }
                     }
                 } else if (mergeHelper1(tracked, splitTracked, branchTracked,
@@ -459,6 +817,12 @@ public class Repository implements Serializable {
         }
         mergeHelper3(mergedConflict, branchName);
     }
+
+    /**
+     * Returns true, after saying why, if merging BRANCHNAME should stop
+     * here.  That includes a fast-forward, which is done and flushed here,
+     * since merge then ends by throwing and Main publishes nothing.
+     */
     private boolean mergeError(List<String> stageList, List<String> removeList,
                                List<String> branchList, String branchName) {
         if (!stageList.isEmpty() || !removeList.isEmpty()) {
@@ -467,26 +831,25 @@ public class Repository implements Serializable {
         } else if (!branchList.contains(branchName)) {
             System.out.println("A branch with that name does not exist.");
             return true;
-        } else if (readContentsAsString(HEAD).equals(branchName)) {
+        } else if (refs.currentBranch().equals(branchName)) {
             System.out.println("Cannot merge a branch with itself.");
             return true;
         } else if (untrackedError(branchName)) {
             System.out.println("There is an untracked file in the way;"
                     + " delete it, or add and commit it first.");
             return true;
-        } else if (splitPoint(branchName) != null) {
-            Commit splitPoint = splitPoint(branchName);
-            File branchPointer = new File(branch, branchName);
-            if (splitPoint.getId().equals(readContentsAsString(branchPointer))) {
-                System.out.println("Given branch is an ancestor of the current branch.");
-                return true;
-            } else if (splitPoint.getId().equals(getNewestCommit().getId())) {
-                File bran = new File(branch, branchName);
-                checkoutBranch(readContentsAsString(bran));
-                writeContents(bran, readContentsAsString(bran));
-                System.out.println("Current branch fast-forwarded.");
-                return true;
-            }
+        }
+        String headId = headId();
+        String branchId = refs.tip(branchName);
+        if (commitGraph.isAncestor(branchId, headId)) {
+            System.out.println("Given branch is an ancestor of the current branch.");
+            return true;
+        } else if (commitGraph.isAncestor(headId, branchId)) {
+            checkoutBranch(branchId);
+            refs.setTip(refs.currentBranch(), branchId);
+            flush();
+            System.out.println("Current branch fast-forwarded.");
+            return true;
         }
         return false;
     }
@@ -499,10 +862,8 @@ public class Repository implements Serializable {
                 && branchTracked.containsKey(fileName) && !tracked.containsKey(fileName)) {
             if (!splitTracked.get(fileName).equals(tracked.get(fileName))
                     && !branchTracked.containsKey(fileName)) {
-                File trackBlobPointer = new File(blob, tracked.get(fileName));
                 File cwdPointer = new File(CWD, fileName);
-                String trackContents = readContentsAsString(trackBlobPointer);
-                mergeConflict(cwdPointer, trackContents, "");
+                mergeConflict(cwdPointer, tracked.get(fileName), null);
                 return true;
             } else if (splitTracked.get(fileName).equals(tracked.get(fileName))
                     && !branchTracked.containsKey(fileName)) {
@@ -511,13 +872,11 @@ public class Repository implements Serializable {
             } else if (!splitTracked.get(fileName).equals(branchTracked.get(fileName))
                     && !tracked.containsKey(fileName)) {
                 File cwdPointer = new File(CWD, fileName);
-                File branchBlobPointer = new File(blob, branchTracked.get(fileName));
-                String branchContents = readContentsAsString(branchBlobPointer);
-                mergeConflict(cwdPointer, "", branchContents);
+                mergeConflict(cwdPointer, null, branchTracked.get(fileName));
                 return true;
             } else if (splitTracked.get(fileName).equals(branchTracked.get(fileName))
                     && !tracked.containsKey(fileName)) {
-                if (plainFilenamesIn(CWD).contains(fileName)) {
+                if (join(CWD, fileName).isFile()) {
                     remove(fileName);
                     return false;
                 }
@@ -530,21 +889,17 @@ public class Repository implements Serializable {
                                  HashMap<String, String> branchTracked, String fileName) {
         if (!splitTracked.get(fileName).equals(branchTracked.get(fileName))
                 && !branchTracked.get(fileName).equals(tracked.get(fileName))) {
-            File trackBlobPointer = new File(blob, tracked.get(fileName));
-            File branchBlobPointer = new File(blob, branchTracked.get(fileName));
+            String trackBlob = tracked.get(fileName);
+            String branchBlob = branchTracked.get(fileName);
             File cwdPointer = new File(CWD, fileName);
-            if (trackBlobPointer.exists() && branchBlobPointer.exists()) {
-                String trackContents = readContentsAsString(trackBlobPointer);
-                String branchContents = readContentsAsString(branchBlobPointer);
-                mergeConflict(cwdPointer, trackContents, branchContents);
+            if (blobs.contains(trackBlob) && blobs.contains(branchBlob)) {
+                mergeConflict(cwdPointer, trackBlob, branchBlob);
                 return true;
-            } else if (!trackBlobPointer.exists() && branchBlobPointer.exists()) {
-                String branchContents = readContentsAsString(branchBlobPointer);
-                mergeConflict(cwdPointer, "", branchContents);
+            } else if (!blobs.contains(trackBlob) && blobs.contains(branchBlob)) {
+                mergeConflict(cwdPointer, null, branchBlob);
                 return true;
             } else {
-                String trackContents = readContentsAsString(trackBlobPointer);
-                mergeConflict(cwdPointer, trackContents, "");
+                mergeConflict(cwdPointer, trackBlob, null);
                 return true;
             }
         }
@@ -554,111 +909,109 @@ public class Repository implements Serializable {
         if (mergedConflict.length() > 0) {
             System.out.println("Encountered a merge conflict.");
         }
-        commit("Merged " + branchName + " into " + readContentsAsString(HEAD) + ".");
+        commit("Merged " + branchName + " into " + refs.currentBranch() + ".");
     }
 
     private Commit splitPoint(String branchName) {
-        Commit current = getNewestCommit();
-        File branchPointer = new File(branch, branchName);
-        if (branchPointer.exists()) {
-            Commit branchCommit = getCommit(readContentsAsString(branchPointer));
-            Set<String> commitsTracker = new HashSet<>();
-            commitsTracker.add(current.getId());
-            if (commitsTracker.contains(branchCommit.getId())) {
-                return branchCommit;
-            }
-            if (branchCommit.getMergeParent() != null) {
-                if (!commitsTracker.contains(branchCommit.getMergeParent())) {
-                    commitsTracker.add(branchCommit.getMergeParent());
-                }
-                return getCommit(branchCommit.getMergeParent());
-            }
-            commitsTracker.add(branchCommit.getId());
-            while (current != null || branchCommit != null) {
-                if (current.getParent() != null) {
-                    if (!commitsTracker.contains(current.getParent())) {
-                        commitsTracker.add(current.getParent());
-                        if (current.getMergeParent() != null) {
-                            if (!commitsTracker.contains(current.getMergeParent())) {
-                                commitsTracker.add(current.getMergeParent());
-                            } else {
-                                return getCommit(current.getMergeParent());
-                            }
-                        }
-                        current = getCommit(current.getParent());
-                    } else {
-                        return getCommit(current.getParent());
-                    }
-                }
-                if (branchCommit.getParent() != null) {
-                    if (!commitsTracker.contains(branchCommit.getParent())) {
-                        commitsTracker.add(branchCommit.getParent());
-                        if (branchCommit.getMergeParent() != null) {
-                            if (!commitsTracker.contains(branchCommit.getMergeParent())) {
-                                commitsTracker.add(branchCommit.getMergeParent());
-                            } else {
-                                return getCommit(branchCommit.getMergeParent());
-                            }
-                        }
-                        branchCommit = getCommit(branchCommit.getParent());
-                    } else {
-                        return getCommit(branchCommit.getParent());
-                    }
-                }
-            }
+        String branchId = refs.tip(branchName);
+        if (branchId == null) {
+            return null;
         }
-        return null;
+        String base = commitGraph.mergeBase(headId(), branchId);
+        return base == null ? null : readCommit(base);
     }
 
     private boolean untrackedError(String branchName) {
-        Commit splitPoint = splitPoint(branchName);
-        HashMap<String, String> splitTracked = splitPoint.getTracked();
-        HashMap<String, String> tracked = getNewestCommit().getTracked();
-        File branchPointer = new File(branch, branchName);
-        Commit branchCommit = getCommit(readContentsAsString(branchPointer));
-        HashMap<String, String> branchTracked = branchCommit.getTracked();
+        String splitTree = treeOf(splitPoint(branchName));
+        String headTree = treeOf(getNewestCommit());
+        String branchTree = treeOf(getCommit(refs.tip(branchName)));
         Set<String> untracked = untracked();
         for (String fileName : untracked) {
-            if (tracked.containsKey(fileName) && !branchTracked.containsKey(fileName)
-                    && !splitTracked.containsKey(fileName)
-                    && plainFilenamesIn(removed).contains(fileName)) {
+            boolean tracked = trees.lookup(headTree, fileName) != null;
+            boolean branchTracked = trees.lookup(branchTree, fileName) != null;
+            boolean splitTracked = trees.lookup(splitTree, fileName) != null;
+            if (tracked && !branchTracked && !splitTracked
+                    && staging.removed().contains(fileName)) {
                 return true;
-            } else if (!tracked.containsKey(fileName) && branchTracked.containsKey(fileName)
-                    && splitTracked.containsKey(fileName)) {
+            } else if (!tracked && branchTracked && splitTracked) {
                 return true;
-            } else if (!tracked.containsKey(fileName)
-                    && !plainFilenamesIn(stage).contains(fileName)) {
+            } else if (!tracked && staging.get(fileName) == null) {
                 return true;
             }
         }
         return false;
     }
 
-    private void mergeConflict(File file, String trackContents, String branchContents) {
-        String newContents = ("<<<<<<< HEAD\n"
-                + trackContents
-                + "=======\n"
-                + branchContents
-                + ">>>>>>>\n");
-        writeContents(file, newContents);
+    private void mergeConflict(File file, String trackBlob, String branchBlob) {
+        file.getAbsoluteFile().getParentFile().mkdirs();
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
+            out.write(CONFLICT_START);
+            if (trackBlob != null) {
+                try (InputStream in = blobs.open(trackBlob)) {
+                    BlobStore.copy(in, out);
+                }
+            }
+            out.write("=======\n".getBytes(StandardCharsets.UTF_8));
+            if (branchBlob != null) {
+                try (InputStream in = blobs.open(branchBlob)) {
+                    BlobStore.copy(in, out);
+                }
+            }
+            out.write(">>>>>>>\n".getBytes(StandardCharsets.UTF_8));
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    private boolean isConflicted(File file) {
+        byte[] start = new byte[CONFLICT_START.length];
+        try (InputStream in = new FileInputStream(file)) {
+            int n = 0;
+            while (n < start.length) {
+                int read = in.read(start, n, start.length - n);
+                if (read < 0) {
+                    return false;
+                }
+                n += read;
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return Arrays.equals(start, CONFLICT_START);
+    }
+
+    /**
+     * Returns true iff FILE holds the contents of the blob BLOBID.  Unless
+     * the stat cache knows the id of FILE already, compares FILE with the
+     * blob directly, which needs no hashing and usually stops at the
+     * lengths, and records the id in the cache, under the attributes FILE
+     * had before the comparison, if they are the same.
+     */
+    private boolean sameContents(String blobId, File file) {
+        if (statCache.knownId(file) == null && blobs.contains(blobId)) {
+            StatCache.Entry stat = StatCache.stat(file);
+            if (!blobs.matches(blobId, file)) {
+                return false;
+            }
+            if (!blobs.isLegacy(blobId)) {
+                statCache.record(file, stat, blobId);
+            }
+            return true;
+        }
+        return blobId.equals(statCache.id(file))
+                || blobId.equals(statCache.legacyId(file));
     }
 
     private Set<String> untracked() {
-        Set<String> cwdSet = new HashSet<>(Arrays.asList(CWD.list()));
-        Set<String> stageSet = new HashSet<>(Arrays.asList(stage.list()));
-        Set<String> removeSet = new HashSet<>(Arrays.asList(removed.list()));
-        HashMap<String, String> tracked = getNewestCommit().getTracked();
+        List<String> cwdSet = filesIn(CWD);
+        Set<String> stageSet = new HashSet<>(staging.added());
+        Set<String> removeSet = new HashSet<>(staging.removed());
+        HashMap<String, String> tracked = trackedFiles(getNewestCommit());
         Set<String> untrackedFiles = new HashSet<>();
         for (String fileName : cwdSet) {
-            File file = new File(CWD, fileName);
-            if (!file.isDirectory() && fileName.contains("txt")) {
+            if (fileName.contains("txt")) {
                 if (tracked.containsKey(fileName)) {
-                    String sha1 = tracked.get(fileName);
-                    File blobPointer = new File(blob, sha1);
-                    String fileContents = readContentsAsString(blobPointer);
-                    if (!fileContents.equals(readContentsAsString(file))) {
-                        continue;
-                    }
+                    continue;
                 } else if (!stageSet.contains(fileName) && !tracked.containsKey(fileName)) {
                     untrackedFiles.add(fileName);
                 } else if (removeSet.contains(fileName)) {
@@ -670,38 +1023,31 @@ public class Repository implements Serializable {
     }
 
     private Set<String> modified() {
-        Set<String> cwdSet = new HashSet<>(Arrays.asList(CWD.list()));
-        Set<String> stageSet = new HashSet<>(Arrays.asList(stage.list()));
-        Set<String> removeSet = new HashSet<>(Arrays.asList(removed.list()));
-        HashMap<String, String> tracked = getNewestCommit().getTracked();
+        List<String> cwdSet = filesIn(CWD);
+        Set<String> stageSet = new HashSet<>(staging.added());
+        Set<String> removeSet = new HashSet<>(staging.removed());
+        HashMap<String, String> tracked = trackedFiles(getNewestCommit());
         Set<String> modifiedFiles = new HashSet<>();
         for (String fileName : cwdSet) {
-            File file = new File(CWD, fileName);
-            if (!file.isDirectory()) {
+            File file = join(CWD, fileName);
+            if (file.isFile()) {
                 if (tracked.containsKey(fileName) && !stageSet.contains(fileName)) {
                     String sha1 = tracked.get(fileName);
-                    File blobPointer = new File(blob, sha1);
-                    String fileContents = readContentsAsString(blobPointer);
-                    if (!fileContents.equals(readContentsAsString(file))) {
+                    if (!sameContents(sha1, file) && !isConflicted(file)) {
                         modifiedFiles.add(fileName + " (modified)");
                     }
-                    if (readContentsAsString(file).contains("<<<<<<< HEAD")) {
-                        modifiedFiles.remove(fileName + " (modified)");
-                    }
                 } else if (stageSet.contains(fileName)) {
-                    File stagePointer = new File(stage, fileName);
-                    File cwdPointer = new File(CWD, fileName);
+                    File cwdPointer = join(CWD, fileName);
                     if (!cwdPointer.exists()) {
                         modifiedFiles.add(fileName + " (deleted)");
-                    } else if (!readContentsAsString(stagePointer).equals
-                            (readContentsAsString(cwdPointer))) {
+                    } else if (!sameContents(staging.get(fileName).id, cwdPointer)) {
                         modifiedFiles.add(fileName + " (modified)");
                     }
                 }
             }
         }
         for (String fileName : tracked.keySet()) {
-            File file = new File(CWD, fileName);
+            File file = join(CWD, fileName);
             if (tracked.containsKey(fileName) && !removeSet.contains(fileName)) {
                 if (!file.exists()) {
                     modifiedFiles.add(fileName + " (deleted)");
@@ -710,34 +1056,134 @@ public class Repository implements Serializable {
         }
         return modifiedFiles;
     }
-    private void clear(File dir) {
-        Set<String> clearSet = new HashSet<>(Arrays.asList(dir.list()));
-        for (String fileName : clearSet) {
-            File file = new File(dir, fileName);
-            file.delete();
+    /**
+     * Returns the paths of the plain files under DIR, relative to it and
+     * with "/" between components, in order.  The .gitlet directory is
+     * skipped.
+     */
+    private static List<String> filesIn(File dir) {
+        List<String> result = new ArrayList<>();
+        addFilesIn(dir, "", result);
+        Collections.sort(result);
+        return result;
+    }
+
+    /**
+     * Adds the paths of the plain files under DIR, prefixed by PREFIX, to
+     * RESULT.
+     */
+    private static void addFilesIn(File dir, String prefix, List<String> result) {
+        File[] files = listFiles(dir);
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (file.isFile()) {
+                result.add(prefix + file.getName());
+            } else if (file.isDirectory() && !file.equals(GITLET_DIR)
+                    && !Files.isSymbolicLink(file.toPath())) {
+                addFilesIn(file, prefix + file.getName() + "/", result);
+            }
         }
     }
 
-    private String getId(File file) {
-        byte[] fileContents = readContents(file);
-        byte[] tempByte = serialize(fileContents);
-        return sha1(tempByte);
+    /**
+     * Returns the path of FILE relative to the working directory, with "/"
+     * between components.
+     */
+    private static String pathOf(File file) {
+        Path path = CWD.toPath().toAbsolutePath().normalize()
+                .relativize(file.toPath().toAbsolutePath().normalize());
+        String result = path.toString().replace(File.separatorChar, '/');
+        if (result.equals("..") || result.startsWith("../") || result.equals(".gitlet")
+                || result.startsWith(".gitlet/")) {
+            throw error("File is not in the working directory.");
+        }
+        return result;
+    }
+
+    /**
+     * Deletes the file at PATH under ROOT, if it exists, and then any
+     * directories between it and ROOT that it leaves empty.
+     */
+    private static void deletePath(File root, String path) {
+        File file = join(root, path);
+        file.delete();
+        for (File dir = file.getParentFile(); dir != null && !dir.equals(root);
+             dir = dir.getParentFile()) {
+            String[] rest = list(dir);
+            if (rest == null || rest.length > 0 || !dir.delete()) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Returns the id of the tree of COMMIT.  If COMMIT lists its files
+     * instead, the tree is built in memory; it is stored only if a new
+     * commit's tree is written from it.
+     */
+    private String treeOf(Commit c) {
+        return c.getTree() != null ? c.getTree() : trees.fromFiles(c.getTracked());
+    }
+
+    /**
+     * Returns the files of COMMIT, by path, mapped to their blob ids.
+     */
+    private HashMap<String, String> trackedFiles(Commit c) {
+        return c.getTree() != null ? trees.files(c.getTree()) : c.getTracked();
+    }
+
+    /**
+     * Maps KEY to VALUE in MAP unless VALUE is null.
+     */
+    private static void putIfPresent(Map<String, String> map, String key, String value) {
+        if (value != null) {
+            map.put(key, value);
+        }
+    }
+
+    private boolean isWorkingDirectory(File file) {
+        try {
+            return file.isDirectory()
+                    && file.getCanonicalFile().equals(CWD.getCanonicalFile());
+        } catch (IOException excp) {
+            return false;
+        }
+    }
+
+    private String headId() {
+        return refs.headId();
     }
 
     private Commit getNewestCommit() {
-        File headLocation = new File(branch, readContentsAsString(HEAD));
-        File commitName = new File(commit, readContentsAsString(headLocation));
-        return readObject(commitName, Commit.class);
+        return readCommit(headId());
+    }
+
+    private Commit readCommit(String id) {
+        Commit result = commitCache.get(id);
+        if (result == null) {
+            result = Commit.read(id, objects.read(ObjectStore.COMMIT, id));
+            commitCache.put(id, result);
+        }
+        return result;
     }
 
     private Commit getCommit(String sha1) {
-        Set<String> commitSet = new HashSet<>(Arrays.asList(commit.list()));
-        for (String commitName : commitSet) {
-            String shortId = commitName.substring(0, sha1.length());
-            if (shortId.equals(sha1)) {
-                File commitPointer = new File(commit, commitName);
-                return readObject(commitPointer, Commit.class);
-            }
+        if (sha1.length() == UID_LENGTH) {
+            return objects.contains(ObjectStore.COMMIT, sha1) ? readCommit(sha1) : null;
+        }
+        List<String> matches = commitIndex.lookup(sha1, 2);
+        matches.removeIf(id -> !objects.contains(ObjectStore.COMMIT, id));
+        if (matches.isEmpty()) {
+            locked(commitIndex::rebuild);
+            matches = commitIndex.lookup(sha1, 2);
+            matches.removeIf(id -> !objects.contains(ObjectStore.COMMIT, id));
+        }
+        if (matches.size() > 1) {
+            throw error("Commit id " + sha1 + " is ambiguous.");
+        } else if (matches.size() == 1) {
+            return readCommit(matches.get(0));
         }
         return null;
     }
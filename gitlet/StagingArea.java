@@ -0,0 +1,286 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import static gitlet.Utils.*;
+
+/**
+ * The changes staged for the next commit.  A staged file is recorded by
+ * the id of its blob, which add() has already stored, and by its mode, so
+ * that commit need only combine these entries with the tree of the head
+ * commit; a file staged for removal is recorded by a tombstone entry.  The
+ * entries live in a single file, .gitlet/staging:
+ *
+ *     int     magic "GLST"
+ *     int     format version
+ *     int     number of entries, followed by, in path order, each entry:
+ *             the path in modified UTF-8, a byte 'a' (added) or 'r'
+ *             (removed) and, for added files, a byte that is 1 iff the
+ *             file is executable and the raw 20-byte blob id
+ *
+ * which save() replaces atomically.  Earlier versions of gitlet kept a
+ * copy of each staged file in .gitlet/stage and of each removed file in
+ * .gitlet/remove; if there is no staging file, those are read instead,
+ * their blobs stored, and the directories deleted once the staging file
+ * has been saved.  Entries may be changed by several threads at once.
+ *
+ * @author KEVIN ZHU
+ */
+class StagingArea {
+    /** First four bytes of the staging file. */
+    private static final int MAGIC = 0x474c5354;
+    /** Current format version. */
+    private static final int VERSION = 1;
+    /** Type byte of an added file. */
+    private static final byte ADDED = 'a';
+    /** Type byte of a removed file. */
+    private static final byte REMOVED = 'r';
+
+    /** The staging file. */
+    private final File file;
+    /** The directories of staged and removed files used by earlier
+     *  versions. */
+    private final File legacyStage, legacyRemoved;
+    /** Where the blobs of legacy staged files are stored. */
+    private final BlobStore blobs;
+    /** The entries, by path, or null until first needed. */
+    private SortedMap<String, Entry> entries;
+    /** True iff ENTRIES differs from the staging file. */
+    private boolean changed;
+    /** True iff the legacy directories should be deleted on saving. */
+    private boolean migrated;
+
+    /** A staging area kept in FILE, taking over the files in LEGACYSTAGE
+     *  and LEGACYREMOVED, if any, and storing their blobs in BLOBS. */
+    StagingArea(File file, File legacyStage, File legacyRemoved, BlobStore blobs) {
+        this.file = file;
+        this.legacyStage = legacyStage;
+        this.legacyRemoved = legacyRemoved;
+        this.blobs = blobs;
+    }
+
+    /** Returns the entry for PATH, or null if it is not staged. */
+    synchronized Entry get(String path) {
+        load();
+        return entries.get(path);
+    }
+
+    /** Returns the paths of the files staged for addition, in order. */
+    synchronized List<String> added() {
+        return paths(false);
+    }
+
+    /** Returns the paths of the files staged for removal, in order. */
+    synchronized List<String> removed() {
+        return paths(true);
+    }
+
+    /** Returns true iff nothing is staged. */
+    synchronized boolean isEmpty() {
+        load();
+        return entries.isEmpty();
+    }
+
+    /** Returns every entry, by path, in path order. */
+    synchronized SortedMap<String, Entry> entries() {
+        load();
+        return new TreeMap<>(entries);
+    }
+
+    /** Stages PATH as the blob ID, executable iff EXECUTABLE. */
+    synchronized void add(String path, String id, boolean executable) {
+        put(path, new Entry(id, executable));
+    }
+
+    /** Stages PATH for removal. */
+    synchronized void remove(String path) {
+        put(path, new Entry(null, false));
+    }
+
+    /** Unstages PATH. */
+    synchronized void unstage(String path) {
+        load();
+        if (entries.remove(path) != null) {
+            changed = true;
+        }
+    }
+
+    /** Unstages everything. */
+    synchronized void clear() {
+        load();
+        if (!entries.isEmpty()) {
+            entries.clear();
+            changed = true;
+        }
+    }
+
+    /** Writes the entries back to the staging file if they have changed. */
+    synchronized void save() {
+        if (!changed) {
+            return;
+        }
+        File temp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(
+                 new BufferedOutputStream(new FileOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(entries.size());
+            for (Map.Entry<String, Entry> item : entries.entrySet()) {
+                Entry entry = item.getValue();
+                out.writeUTF(item.getKey());
+                out.writeByte(entry.isRemoval() ? REMOVED : ADDED);
+                if (!entry.isRemoval()) {
+                    out.writeBoolean(entry.executable);
+                    out.write(CommitIndex.toRaw(entry.id));
+                }
+            }
+        } catch (IOException excp) {
+            temp.delete();
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        try {
+            Files.move(temp.toPath(), file.toPath(),
+                       StandardCopyOption.ATOMIC_MOVE,
+                       StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException excp) {
+            temp.delete();
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        changed = false;
+        if (migrated) {
+            delete(legacyStage);
+            delete(legacyRemoved);
+            migrated = false;
+        }
+    }
+
+    /** Records ENTRY for PATH. */
+    private void put(String path, Entry entry) {
+        load();
+        entries.put(path, entry);
+        changed = true;
+    }
+
+    /** Returns the paths of the entries that are removals iff REMOVALS. */
+    private List<String> paths(boolean removals) {
+        load();
+        List<String> result = new ArrayList<>();
+        for (Map.Entry<String, Entry> item : entries.entrySet()) {
+            if (item.getValue().isRemoval() == removals) {
+                result.add(item.getKey());
+            }
+        }
+        return result;
+    }
+
+    /** Reads the staging file, if that has not been done, or takes over
+     *  the legacy directories if there is no staging file. */
+    private void load() {
+        if (entries != null) {
+            return;
+        }
+        entries = new TreeMap<>();
+        if (!file.isFile()) {
+            migrate();
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(
+                 new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw error("Unknown staging file format.");
+            }
+            int count = in.readInt();
+            byte[] raw = new byte[UID_LENGTH / 2];
+            for (int i = 0; i < count; i += 1) {
+                String path = in.readUTF();
+                if (in.readByte() == REMOVED) {
+                    entries.put(path, new Entry(null, false));
+                } else {
+                    boolean executable = in.readBoolean();
+                    in.readFully(raw);
+                    entries.put(path, new Entry(CommitIndex.toHex(raw), executable));
+                }
+            }
+        } catch (IOException excp) {
+            throw error("Staging file is corrupt.");
+        }
+    }
+
+    /** Takes over the files staged by earlier versions, if any. */
+    private void migrate() {
+        for (String path : legacyFiles(legacyStage, "")) {
+            File staged = join(legacyStage, path);
+            String id = BlobStore.idOf(staged);
+            blobs.write(id, staged);
+            entries.put(path, new Entry(id, staged.canExecute()));
+        }
+        for (String path : legacyFiles(legacyRemoved, "")) {
+            entries.put(path, new Entry(null, false));
+        }
+        migrated = legacyStage.exists() || legacyRemoved.exists();
+        changed = migrated;
+    }
+
+    /** Returns the paths of the plain files under DIR, prefixed by
+     *  PREFIX. */
+    private static List<String> legacyFiles(File dir, String prefix) {
+        List<String> result = new ArrayList<>();
+        File[] files = listFiles(dir);
+        if (files != null) {
+            for (File child : files) {
+                if (child.isFile()) {
+                    result.add(prefix + child.getName());
+                } else if (child.isDirectory()) {
+                    result.addAll(legacyFiles(child, prefix + child.getName() + "/"));
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Deletes DIR and everything in it. */
+    private static void delete(File dir) {
+        File[] files = listFiles(dir);
+        if (files != null) {
+            for (File child : files) {
+                delete(child);
+            }
+        }
+        dir.delete();
+    }
+
+    /** One staged change: a file to add, or a tombstone for a file to
+     *  remove. */
+    static class Entry {
+        /** Id of the staged blob, or null for a removal. */
+        final String id;
+        /** True iff the staged file is executable. */
+        final boolean executable;
+
+        /** An entry staging blob ID, executable iff EXECUTABLE, or a
+         *  removal if ID is null. */
+        Entry(String id, boolean executable) {
+            this.id = id;
+            this.executable = executable;
+        }
+
+        /** Returns true iff this entry stages a removal. */
+        boolean isRemoval() {
+            return id == null;
+        }
+    }
+}
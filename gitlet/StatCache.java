@@ -0,0 +1,299 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A cache of the blob ids of files, so that a file that has not changed
+ * since it was last hashed is recognized from its attributes alone.  The
+ * cache lives in the index file, .gitlet/index:
+ *
+ *     int     magic "GLIX"
+ *     int     format version
+ *     int     number of entries, followed by each entry:
+ *             the path (relative to the working directory) in modified
+ *             UTF-8, the size, the modification time in nanoseconds, the
+ *             inode number (0 where unknown), the raw 20-byte blob id,
+ *             and a byte that is 1 iff the raw 20-byte id that earlier
+ *             versions of gitlet gave the same contents follows
+ *
+ * A cached id is trusted only if the file's size, modification time and
+ * inode still match, and if the file was modified strictly before the
+ * index file was last written.  A file modified in the same clock tick
+ * as that write is "racily clean": it may have changed again after it was
+ * hashed without its modification time changing, so it is hashed again.
+ * Such entries are never carried into a newer index, where they would
+ * look trustworthy: load() drops those that are racy with respect to the
+ * index read, and save() those that are racy with respect to the index
+ * it writes.  The index is replaced atomically by save().  Files may be
+ * hashed by several threads at once.
+ *
+ * @author KEVIN ZHU
+ */
+class StatCache {
+    /** First four bytes of the index file. */
+    private static final int MAGIC = 0x474c4958;
+    /** Current format version. */
+    private static final int VERSION = 2;
+
+    /** The index file. */
+    private final File file;
+    /** The directory against which entry paths are resolved. */
+    private final File root;
+    /** The entries, by path, or null until first needed. */
+    private Map<String, Entry> entries;
+    /** Modification time of the index file when it was last read or
+     *  written, in nanoseconds; entries modified at or after it are not
+     *  trusted. */
+    private long indexTime;
+    /** True iff ENTRIES differs from the index file. */
+    private boolean changed;
+
+    /** A cache stored in FILE for files under ROOT. */
+    StatCache(File file, File root) {
+        this.file = file;
+        this.root = root;
+    }
+
+    /** Returns the blob id of the contents of FILE, hashing it only if
+     *  it may have changed since it was last hashed.  FILE must be a
+     *  normal file. */
+    String id(File target) {
+        String known = knownId(target);
+        if (known != null) {
+            return known;
+        }
+        Entry stat = stat(target);
+        stat.id = BlobStore.idOf(target);
+        synchronized (this) {
+            entries.put(key(target), stat);
+            changed = true;
+        }
+        return stat.id;
+    }
+
+    /** Returns the blob id of the contents of FILE if it is known not to
+     *  have changed since it was last hashed, and otherwise null. */
+    String knownId(File target) {
+        Entry stat = stat(target);
+        synchronized (this) {
+            load();
+            Entry cached = entries.get(key(target));
+            if (cached != null && cached.sameFile(stat)
+                    && cached.mtime < indexTime) {
+                return cached.id;
+            }
+        }
+        return null;
+    }
+
+    /** Returns the id that earlier versions of gitlet gave the contents of
+     *  TARGET (see BlobStore.legacyIdOf), hashing it only if it may have
+     *  changed since that id was last computed. */
+    String legacyId(File target) {
+        id(target);
+        Entry entry;
+        synchronized (this) {
+            entry = entries.get(key(target));
+            if (entry.legacyId != null) {
+                return entry.legacyId;
+            }
+        }
+        String legacyId = BlobStore.legacyIdOf(target);
+        synchronized (this) {
+            entry.legacyId = legacyId;
+            changed = true;
+        }
+        return legacyId;
+    }
+
+    /** Records that the contents of FILE have blob id ID, as found by
+     *  reading FILE after STAT, its attributes from stat(), were taken.
+     *  Should FILE change while it is read, its attributes then no longer
+     *  match STAT, so the entry is not trusted. */
+    synchronized void record(File target, Entry stat, String id) {
+        load();
+        stat.id = id;
+        entries.put(key(target), stat);
+        changed = true;
+    }
+
+    /** Writes the cache back to the index file if it has changed, dropping
+     *  the entries of files that no longer exist. */
+    synchronized void save() {
+        if (!changed) {
+            return;
+        }
+        for (Iterator<String> paths = entries.keySet().iterator();
+             paths.hasNext();) {
+            if (!new File(root, paths.next()).isFile()) {
+                paths.remove();
+            }
+        }
+        File temp = new File(file.getPath() + ".tmp");
+        long written = write(temp);
+        if (entries.values().removeIf(entry -> entry.mtime >= written)) {
+            write(temp);
+        }
+        try {
+            Files.move(temp.toPath(), file.toPath(),
+                       StandardCopyOption.ATOMIC_MOVE,
+                       StandardCopyOption.REPLACE_EXISTING);
+            indexTime = Files.getLastModifiedTime(file.toPath())
+                .to(TimeUnit.NANOSECONDS);
+        } catch (IOException excp) {
+            temp.delete();
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        changed = false;
+    }
+
+    /** Writes the entries to TEMP in the format of the index file, and
+     *  returns TEMP's modification time in nanoseconds. */
+    private long write(File temp) {
+        try (DataOutputStream out = new DataOutputStream(
+                 new BufferedOutputStream(new FileOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(entries.size());
+            for (Map.Entry<String, Entry> item : entries.entrySet()) {
+                Entry entry = item.getValue();
+                out.writeUTF(item.getKey());
+                out.writeLong(entry.size);
+                out.writeLong(entry.mtime);
+                out.writeLong(entry.inode);
+                out.write(CommitIndex.toRaw(entry.id));
+                out.writeBoolean(entry.legacyId != null);
+                if (entry.legacyId != null) {
+                    out.write(CommitIndex.toRaw(entry.legacyId));
+                }
+            }
+        } catch (IOException excp) {
+            temp.delete();
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        try {
+            return Files.getLastModifiedTime(temp.toPath())
+                .to(TimeUnit.NANOSECONDS);
+        } catch (IOException excp) {
+            temp.delete();
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Reads the index file, if that has not been done.  A missing or
+     *  unreadable index file is treated as empty. */
+    private void load() {
+        if (entries != null) {
+            return;
+        }
+        entries = new TreeMap<>();
+        if (!file.isFile()) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(
+                 new BufferedInputStream(new FileInputStream(file)))) {
+            indexTime = Files.getLastModifiedTime(file.toPath())
+                .to(TimeUnit.NANOSECONDS);
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i += 1) {
+                String path = in.readUTF();
+                Entry entry = new Entry(in.readLong(), in.readLong(),
+                                        in.readLong());
+                byte[] raw = new byte[Utils.UID_LENGTH / 2];
+                in.readFully(raw);
+                entry.id = CommitIndex.toHex(raw);
+                if (in.readBoolean()) {
+                    in.readFully(raw);
+                    entry.legacyId = CommitIndex.toHex(raw);
+                }
+                if (entry.mtime < indexTime) {
+                    entries.put(path, entry);
+                }
+            }
+        } catch (EOFException excp) {
+            entries.clear();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns the path of TARGET relative to the root. */
+    private String key(File target) {
+        return root.getAbsoluteFile().toPath()
+            .relativize(target.getAbsoluteFile().toPath()).toString();
+    }
+
+    /** Returns the current size, modification time and inode of TARGET,
+     *  read without following symbolic links. */
+    static Entry stat(File target) {
+        Path path = target.toPath();
+        try {
+            try {
+                Map<String, Object> attrs = Files.readAttributes(
+                    path, "unix:size,lastModifiedTime,ino",
+                    LinkOption.NOFOLLOW_LINKS);
+                return new Entry((Long) attrs.get("size"),
+                                 ((FileTime) attrs.get("lastModifiedTime"))
+                                 .to(TimeUnit.NANOSECONDS),
+                                 (Long) attrs.get("ino"));
+            } catch (UnsupportedOperationException excp) {
+                BasicFileAttributes attrs = Files.readAttributes(
+                    path, BasicFileAttributes.class,
+                    LinkOption.NOFOLLOW_LINKS);
+                return new Entry(attrs.size(), attrs.lastModifiedTime()
+                                 .to(TimeUnit.NANOSECONDS), 0);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** The attributes and blob id of one file. */
+    static class Entry {
+        /** Size of the file in bytes. */
+        final long size;
+        /** Modification time of the file, in nanoseconds. */
+        final long mtime;
+        /** Inode number of the file, or 0 if unknown. */
+        final long inode;
+        /** Blob id of the file's contents. */
+        String id;
+        /** Legacy blob id of the file's contents, or null if not known. */
+        String legacyId;
+
+        /** An entry for a file of SIZE bytes, modified at MTIME and
+         *  stored at INODE. */
+        Entry(long size, long mtime, long inode) {
+            this.size = size;
+            this.mtime = mtime;
+            this.inode = inode;
+        }
+
+        /** Returns true iff OTHER has the same attributes as this. */
+        boolean sameFile(Entry other) {
+            return size == other.size && mtime == other.mtime
+                && inode == other.inode;
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package gitlet;
+
+import java.io.File;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Counts and times the file reads, writes, syncs and listings,
+ * deserializations and hashing that a command does, when tracing is on:
+ * when gitlet is run as "gitlet --trace COMMAND ..." or with the
+ * GITLET_TRACE environment variable set.  After each command, report()
+ * prints the number of operations of each category, the bytes they
+ * handled and the time they took on the standard error.  Each operation
+ * is also a JFR event, gitlet.Operation, so that a recording made with
+ * -XX:StartFlightRecording shows where in a command they happened.
+ *
+ * Operations may be timed on several threads at once.  Operations nested
+ * in others (such as the read done by readObject) are counted in both
+ * categories.  Tracing costs one test per operation when it is off.
+ *
+ * @author KEVIN ZHU
+ */
+class Trace {
+    /** Categories of operations. */
+    static final String READ = "read", WRITE = "write", READ_OBJECT = "readObject",
+        LIST = "list", SHA1 = "sha1", SYNC = "sync";
+
+    /** True iff every command is traced. */
+    private static final boolean ALWAYS = System.getenv("GITLET_TRACE") != null;
+    /** True iff operations are being traced. */
+    private static volatile boolean enabled = ALWAYS;
+    /** Totals of {calls, bytes, nanoseconds} for each category. */
+    private static final Map<String, AtomicLong[]> TOTALS = new ConcurrentSkipListMap<>();
+
+    /** An operation in progress, recorded as a JFR event when it ends. */
+    @Name("gitlet.Operation")
+    @Label("Gitlet Operation")
+    @Description("A file system operation or hash done by a gitlet command")
+    static class Span extends Event {
+        /** The category of the operation. */
+        @Label("Category")
+        String category;
+        /** The file or directory operated on, if any. */
+        @Label("Path")
+        String path;
+        /** The number of bytes read, written or hashed. */
+        @Label("Bytes")
+        long bytes;
+        /** The value of System.nanoTime() when the operation began. */
+        private transient long start;
+    }
+
+    /** Turns tracing on for the current command. */
+    static void enable() {
+        enabled = true;
+    }
+
+    /** Returns a new operation of the given CATEGORY, or null if tracing
+     *  is off. */
+    static Span start(String category) {
+        if (!enabled) {
+            return null;
+        }
+        Span span = new Span();
+        span.category = category;
+        span.begin();
+        span.start = System.nanoTime();
+        return span;
+    }
+
+    /** Ends SPAN, if it is not null, which operated on FILE (or null) and
+     *  handled BYTES bytes. */
+    static void end(Span span, File file, long bytes) {
+        if (span == null) {
+            return;
+        }
+        long nanos = System.nanoTime() - span.start;
+        span.end();
+        if (span.shouldCommit()) {
+            span.path = file == null ? null : file.getPath();
+            span.bytes = bytes;
+            span.commit();
+        }
+        AtomicLong[] totals = TOTALS.computeIfAbsent(span.category,
+            k -> new AtomicLong[] { new AtomicLong(), new AtomicLong(), new AtomicLong() });
+        totals[0].incrementAndGet();
+        totals[1].addAndGet(bytes);
+        totals[2].addAndGet(nanos);
+    }
+
+    /** If tracing is on, prints a summary of the operations of COMMAND,
+     *  which took NANOS nanoseconds in all, on the standard error, and
+     *  resets the totals and the setting for the next command. */
+    static void report(String command, long nanos) {
+        if (!enabled) {
+            return;
+        }
+        System.err.printf("trace: %s, %.1f ms%n", command, nanos / 1e6);
+        System.err.printf("  %-12s %10s %14s %10s%n", "category", "calls", "bytes", "ms");
+        for (Map.Entry<String, AtomicLong[]> entry : TOTALS.entrySet()) {
+            AtomicLong[] totals = entry.getValue();
+            System.err.printf("  %-12s %10d %14d %10.1f%n", entry.getKey(),
+                              totals[0].get(), totals[1].get(), totals[2].get() / 1e6);
+        }
+        TOTALS.clear();
+        enabled = ALWAYS;
+    }
+}
@@ -0,0 +1,172 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import static gitlet.Utils.*;
+
+/**
+ * The contents of one directory in a commit: a map from names to the ids
+ * of blobs (for files) and of other trees (for subdirectories).  Trees
+ * are immutable; with() returns a changed copy.
+ *
+ * Trees are stored in a versioned binary encoding (see encode()):
+ *
+ *     int     magic "GLTR"
+ *     byte    format version
+ *     int     number of entries, followed by, in name order, each entry:
+ *             a byte 'b' (blob), 'x' (blob of an executable file) or 't'
+ *             (tree), the name length, the UTF-8 name and the raw 20-byte
+ *             id
+ *
+ * and a tree's id is the SHA-1 of its encoding, so two directories with
+ * the same contents, in any commits, are the same tree.
+ *
+ * @author KEVIN ZHU
+ */
+class Tree {
+    /** First four bytes of an encoded tree. */
+    private static final int MAGIC = 0x474c5452;
+    /** Current encoding version. */
+    private static final byte VERSION = 1;
+    /** Type byte of a blob entry. */
+    private static final byte BLOB = 'b';
+    /** Type byte of an executable blob entry. */
+    private static final byte EXECUTABLE = 'x';
+    /** Type byte of a tree entry. */
+    private static final byte TREE = 't';
+
+    /** The tree of an empty directory. */
+    static final Tree EMPTY = new Tree(new TreeMap<>());
+
+    /** The entries of this tree, by name. */
+    private final SortedMap<String, Entry> entries;
+    /** The id of this tree, or null until computed. */
+    private String id;
+
+    /** A tree with the given ENTRIES, which it takes over. */
+    private Tree(SortedMap<String, Entry> entries) {
+        this.entries = entries;
+    }
+
+    /** Returns the entry named NAME, or null if there is none. */
+    Entry get(String name) {
+        return entries.get(name);
+    }
+
+    /** Returns the entries of this tree, by name, in name order. */
+    SortedMap<String, Entry> entries() {
+        return Collections.unmodifiableSortedMap(entries);
+    }
+
+    /** Returns true iff this tree has no entries. */
+    boolean isEmpty() {
+        return entries.isEmpty();
+    }
+
+    /** Returns a copy of this tree in which NAME has ENTRY, or has no
+     *  entry if ENTRY is null. */
+    Tree with(String name, Entry entry) {
+        SortedMap<String, Entry> result = new TreeMap<>(entries);
+        if (entry == null) {
+            result.remove(name);
+        } else {
+            result.put(name, entry);
+        }
+        return new Tree(result);
+    }
+
+    /** Returns the id of this tree. */
+    String id() {
+        if (id == null) {
+            id = sha1((Object) encode());
+        }
+        return id;
+    }
+
+    /** Returns the encoded form of this tree. */
+    byte[] encode() {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            out.writeInt(entries.size());
+            for (Map.Entry<String, Entry> item : entries.entrySet()) {
+                byte[] name = item.getKey().getBytes(StandardCharsets.UTF_8);
+                Entry entry = item.getValue();
+                out.writeByte(entry.isTree ? TREE : entry.executable ? EXECUTABLE : BLOB);
+                out.writeInt(name.length);
+                out.write(name);
+                out.write(CommitIndex.toRaw(entry.id));
+            }
+            out.close();
+            return bytes.toByteArray();
+        } catch (IOException excp) {
+            throw error("Internal error encoding tree.");
+        }
+    }
+
+    /** Returns the tree with id ID whose encoding is CONTENTS. */
+    static Tree decode(String id, byte[] contents) {
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(contents));
+            if (in.readInt() != MAGIC) {
+                throw error("Tree %s is not a tree object.", id);
+            }
+            byte version = in.readByte();
+            if (version != VERSION) {
+                throw error("Tree %s has unknown format %d.", id, version);
+            }
+            SortedMap<String, Entry> entries = new TreeMap<>();
+            int count = in.readInt();
+            byte[] raw = new byte[UID_LENGTH / 2];
+            for (int i = 0; i < count; i += 1) {
+                byte type = in.readByte();
+                byte[] name = new byte[in.readInt()];
+                in.readFully(name);
+                in.readFully(raw);
+                entries.put(new String(name, StandardCharsets.UTF_8),
+                            new Entry(CommitIndex.toHex(raw), type == TREE,
+                                      type == EXECUTABLE));
+            }
+            Tree result = new Tree(entries);
+            result.id = id;
+            return result;
+        } catch (IOException excp) {
+            throw error("Tree %s is corrupt.", id);
+        }
+    }
+
+    /** One entry of a tree: the id of a blob or of a subtree. */
+    static class Entry {
+        /** The id of the blob or tree. */
+        final String id;
+        /** True iff ID names a tree. */
+        final boolean isTree;
+        /** True iff ID names the blob of an executable file. */
+        final boolean executable;
+
+        /** An entry for the object ID, a tree iff ISTREE, and otherwise
+         *  the blob of an executable file iff EXECUTABLE. */
+        Entry(String id, boolean isTree, boolean executable) {
+            this.id = id;
+            this.isTree = isTree;
+            this.executable = executable && !isTree;
+        }
+
+        /** Returns true iff OTHER describes the same object as this. */
+        boolean sameAs(Entry other) {
+            return other != null && isTree == other.isTree
+                && executable == other.executable && id.equals(other.id);
+        }
+    }
+}
@@ -0,0 +1,239 @@
+package gitlet;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import static gitlet.Utils.*;
+
+/**
+ * The trees of a repository.  A commit names the tree of the working
+ * directory; each tree names the blobs of the files in its directory and
+ * the trees of its subdirectories.  Paths are relative to the working
+ * directory, with components separated by "/".
+ *
+ * Since a tree's id depends only on its contents, a commit that changes
+ * a few files writes new trees only for the directories on the paths to
+ * them, and shares every other tree with its parent.  For the same
+ * reason, two commits whose trees for a directory have the same id have
+ * the same files under it, so diff() never looks inside such trees.
+ * Trees, once read, are kept in a cache.
+ *
+ * Commits made by earlier versions of gitlet list their files instead of
+ * naming a tree.  The trees fromFiles() builds for them are only kept in
+ * memory, so that commands that merely read such commits write nothing,
+ * and are stored when a tree that is written refers to them.
+ *
+ * @author KEVIN ZHU
+ */
+class TreeStore {
+    /** Most trees kept in the cache. */
+    static final long CACHE_SIZE = 65536;
+
+    /** The objects of the repository. */
+    private final ObjectStore objects;
+    /** Recently read or written trees, by id. */
+    private final ObjectCache<Tree> cache;
+    /** Trees built by fromFiles() and not yet stored, by id. */
+    private final Map<String, Tree> unstored = new HashMap<>();
+
+    /** The trees among OBJECTS. */
+    TreeStore(ObjectStore objects) {
+        this(objects, new ObjectCache<>("trees", CACHE_SIZE, t -> 1));
+    }
+
+    /** The trees among OBJECTS, kept in CACHE once read or written. */
+    TreeStore(ObjectStore objects, ObjectCache<Tree> cache) {
+        this.objects = objects;
+        this.cache = cache;
+    }
+
+    /** Returns the tree with id ID. */
+    synchronized Tree read(String id) {
+        Tree result = unstored.get(id);
+        if (result != null) {
+            return result;
+        }
+        result = cache.get(id);
+        if (result == null) {
+            result = Tree.decode(id, objects.read(ObjectStore.TREE, id));
+            cache.put(id, result);
+        }
+        return result;
+    }
+
+    /** Stores TREE, if it is not already stored, and returns its id.  Any
+     *  subtrees of TREE built by fromFiles() are stored first. */
+    synchronized String write(Tree tree) {
+        for (Tree.Entry entry : tree.entries().values()) {
+            Tree subtree = entry.isTree ? unstored.remove(entry.id) : null;
+            if (subtree != null) {
+                write(subtree);
+            }
+        }
+        String id = tree.id();
+        unstored.remove(id);
+        objects.write(ObjectStore.TREE, id, tree.encode());
+        cache.put(id, tree);
+        return id;
+    }
+
+    /** Returns the id of the tree obtained from the tree ROOT by applying
+     *  CHANGES, a map from paths to the blob entries of the new files, or
+     *  to null for files to be removed.  Writes only the trees that
+     *  change; directories left empty are dropped. */
+    String update(String root, Map<String, Tree.Entry> changes) {
+        return write(update(read(root), changes, true));
+    }
+
+    /** Returns TREE with CHANGES, whose paths are relative to it, applied.
+     *  Changed subtrees are written if STORE, and otherwise only kept in
+     *  memory. */
+    private Tree update(Tree tree, Map<String, Tree.Entry> changes, boolean store) {
+        Map<String, Tree.Entry> files = new LinkedHashMap<>();
+        Map<String, Map<String, Tree.Entry>> subdirs = new TreeMap<>();
+        for (Map.Entry<String, Tree.Entry> change : changes.entrySet()) {
+            String path = change.getKey();
+            int slash = path.indexOf('/');
+            if (slash < 0) {
+                files.put(path, change.getValue());
+            } else {
+                subdirs.computeIfAbsent(path.substring(0, slash), k -> new HashMap<>())
+                    .put(path.substring(slash + 1), change.getValue());
+            }
+        }
+        Tree result = tree;
+        for (Map.Entry<String, Map<String, Tree.Entry>> subdir : subdirs.entrySet()) {
+            Tree.Entry old = result.get(subdir.getKey());
+            boolean wasTree = old != null && old.isTree;
+            Tree updated = update(wasTree ? read(old.id) : Tree.EMPTY, subdir.getValue(),
+                                  store);
+            if (!updated.isEmpty()) {
+                String id = store ? write(updated) : keep(updated);
+                result = result.with(subdir.getKey(), new Tree.Entry(id, true, false));
+            } else if (wasTree) {
+                result = result.with(subdir.getKey(), null);
+            }
+        }
+        for (Map.Entry<String, Tree.Entry> file : files.entrySet()) {
+            Tree.Entry old = result.get(file.getKey());
+            if (file.getValue() != null) {
+                result = result.with(file.getKey(), file.getValue());
+            } else if (old != null && !old.isTree) {
+                result = result.with(file.getKey(), null);
+            }
+        }
+        return result;
+    }
+
+    /** Returns the id of the tree holding the files in FILES, a map from
+     *  paths to blob ids.  The tree and its subtrees are kept in memory,
+     *  not stored, until a tree that is written refers to them. */
+    String fromFiles(Map<String, String> files) {
+        Map<String, Tree.Entry> changes = new HashMap<>();
+        for (Map.Entry<String, String> file : files.entrySet()) {
+            changes.put(file.getKey(), new Tree.Entry(file.getValue(), false, false));
+        }
+        return keep(update(Tree.EMPTY, changes, false));
+    }
+
+    /** Keeps TREE in memory, unstored, and returns its id. */
+    private synchronized String keep(Tree tree) {
+        String id = tree.id();
+        if (!objects.contains(ObjectStore.TREE, id)) {
+            unstored.put(id, tree);
+        }
+        return id;
+    }
+
+    /** Returns the id of the blob at PATH in the tree ROOT, or null if
+     *  there is no file there. */
+    String lookup(String root, String path) {
+        Tree.Entry entry = entry(root, path);
+        return entry == null ? null : entry.id;
+    }
+
+    /** Returns the entry of the file at PATH in the tree ROOT, or null if
+     *  there is no file there. */
+    Tree.Entry entry(String root, String path) {
+        Tree tree = read(root);
+        String[] names = path.split("/");
+        for (int i = 0; i < names.length; i += 1) {
+            Tree.Entry entry = tree.get(names[i]);
+            if (entry == null || entry.isTree != (i < names.length - 1)) {
+                return null;
+            } else if (!entry.isTree) {
+                return entry;
+            }
+            tree = read(entry.id);
+        }
+        return null;
+    }
+
+    /** Returns a map from the path of every file in the tree ROOT to its
+     *  blob id. */
+    HashMap<String, String> files(String root) {
+        HashMap<String, String> result = new HashMap<>();
+        addFiles(read(root), "", result);
+        return result;
+    }
+
+    /** Adds the files under TREE, with their paths prefixed by PREFIX, to
+     *  RESULT. */
+    private void addFiles(Tree tree, String prefix, Map<String, String> result) {
+        for (Map.Entry<String, Tree.Entry> item : tree.entries().entrySet()) {
+            Tree.Entry entry = item.getValue();
+            if (entry.isTree) {
+                addFiles(read(entry.id), prefix + item.getKey() + "/", result);
+            } else {
+                result.put(prefix + item.getKey(), entry.id);
+            }
+        }
+    }
+
+    /** Returns the files that differ, in contents or mode, between the
+     *  trees BEFORE and AFTER, in path order, each mapped to an array {old
+     *  blob id, new blob id} in which null stands for a missing file.
+     *  Subtrees with the same id on both sides are skipped without being
+     *  read. */
+    SortedMap<String, String[]> diff(String before, String after) {
+        SortedMap<String, String[]> result = new TreeMap<>();
+        diff(read(before), read(after), "", result);
+        return result;
+    }
+
+    /** Adds the differences between the trees BEFORE and AFTER, either of
+     *  which may be null for an empty tree, with their paths prefixed by
+     *  PREFIX, to RESULT. */
+    private void diff(Tree before, Tree after, String prefix,
+                      Map<String, String[]> result) {
+        TreeSet<String> names = new TreeSet<>();
+        if (before != null) {
+            names.addAll(before.entries().keySet());
+        }
+        if (after != null) {
+            names.addAll(after.entries().keySet());
+        }
+        for (String name : names) {
+            Tree.Entry old = before == null ? null : before.get(name);
+            Tree.Entry now = after == null ? null : after.get(name);
+            if (old != null && old.sameAs(now)) {
+                continue;
+            }
+            String path = prefix + name;
+            String oldBlob = old != null && !old.isTree ? old.id : null;
+            String newBlob = now != null && !now.isTree ? now.id : null;
+            if (oldBlob != null || newBlob != null) {
+                result.put(path, new String[] { oldBlob, newBlob });
+            }
+            Tree oldTree = old != null && old.isTree ? read(old.id) : null;
+            Tree newTree = now != null && now.isTree ? read(now.id) : null;
+            if (oldTree != null || newTree != null) {
+                diff(oldTree, newTree, path + "/", result);
+            }
+        }
+    }
+}
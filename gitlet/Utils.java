@@ -36,21 +36,27 @@ class Utils {
     /** Returns the SHA-1 hash of the concatenation of VALS, which may
      *  be any mixture of byte arrays and Strings. */
     static String sha1(Object... vals) {
+        Trace.Span span = Trace.start(Trace.SHA1);
         try {
             MessageDigest md = MessageDigest.getInstance("SHA-1");
+            long bytes = 0;
             for (Object val : vals) {
+                byte[] data;
                 if (val instanceof byte[]) {
-                    md.update((byte[]) val);
+                    data = (byte[]) val;
                 } else if (val instanceof String) {
-                    md.update(((String) val).getBytes(StandardCharsets.UTF_8));
+                    data = ((String) val).getBytes(StandardCharsets.UTF_8);
                 } else {
                     throw new IllegalArgumentException("improper type to sha1");
                 }
+                md.update(data);
+                bytes += data.length;
             }
             Formatter result = new Formatter();
             for (byte b : md.digest()) {
                 result.format("%02x", b);
             }
+            Trace.end(span, null, bytes);
             return result.toString();
         } catch (NoSuchAlgorithmException excp) {
             throw new IllegalArgumentException("System does not support SHA-1");
@@ -97,8 +103,11 @@ class Utils {
         if (!file.isFile()) {
             throw new IllegalArgumentException("must be a normal file");
         }
+        Trace.Span span = Trace.start(Trace.READ);
         try {
-            return Files.readAllBytes(file.toPath());
+            byte[] result = Files.readAllBytes(file.toPath());
+            Trace.end(span, file, result.length);
+            return result;
         } catch (IOException excp) {
             throw new IllegalArgumentException(excp.getMessage());
         }
@@ -116,6 +125,7 @@ class Utils {
      *  either a String or a byte array.  Throws IllegalArgumentException
      *  in case of problems. */
     static void writeContents(File file, Object... contents) {
+        Trace.Span span = Trace.start(Trace.WRITE);
         try {
             if (file.isDirectory()) {
                 throw
@@ -123,14 +133,15 @@ class Utils {
             }
             BufferedOutputStream str =
                 new BufferedOutputStream(Files.newOutputStream(file.toPath()));
+            long bytes = 0;
             for (Object obj : contents) {
-                if (obj instanceof byte[]) {
-                    str.write((byte[]) obj);
-                } else {
-                    str.write(((String) obj).getBytes(StandardCharsets.UTF_8));
-                }
+                byte[] data = obj instanceof byte[] ? (byte[]) obj
+                    : ((String) obj).getBytes(StandardCharsets.UTF_8);
+                str.write(data);
+                bytes += data.length;
             }
             str.close();
+            Trace.end(span, file, bytes);
         } catch (IOException | ClassCastException excp) {
             throw new IllegalArgumentException(excp.getMessage());
         }
@@ -140,11 +151,13 @@ class Utils {
      *  Throws IllegalArgumentException in case of problems. */
     static <T extends Serializable> T readObject(File file,
                                                  Class<T> expectedClass) {
+        Trace.Span span = Trace.start(Trace.READ_OBJECT);
         try {
             ObjectInputStream in =
                 new ObjectInputStream(new FileInputStream(file));
             T result = expectedClass.cast(in.readObject());
             in.close();
+            Trace.end(span, file, file.length());
             return result;
         } catch (IOException | ClassCastException
                  | ClassNotFoundException excp) {
@@ -172,7 +185,9 @@ class Utils {
      *  lexicographic order as Java Strings.  Returns null if DIR does
      *  not denote a directory. */
     static List<String> plainFilenamesIn(File dir) {
+        Trace.Span span = Trace.start(Trace.LIST);
         String[] files = dir.list(PLAIN_FILES);
+        Trace.end(span, dir, 0);
         if (files == null) {
             return null;
         } else {
@@ -188,6 +203,24 @@ class Utils {
         return plainFilenamesIn(new File(dir));
     }
 
+    /** Returns the names of the entries of the directory DIR, in no
+     *  particular order, or null if DIR does not denote a directory. */
+    static String[] list(File dir) {
+        Trace.Span span = Trace.start(Trace.LIST);
+        String[] result = dir.list();
+        Trace.end(span, dir, 0);
+        return result;
+    }
+
+    /** Returns the entries of the directory DIR, in no particular order,
+     *  or null if DIR does not denote a directory. */
+    static File[] listFiles(File dir) {
+        Trace.Span span = Trace.start(Trace.LIST);
+        File[] result = dir.listFiles();
+        Trace.end(span, dir, 0);
+        return result;
+    }
+
     /* OTHER FILE UTILITIES */
 
     /** Return the concatentation of FIRST and OTHERS into a File designator,
@@ -236,4 +269,17 @@ class Utils {
         System.out.printf(msg, args);
         System.out.println();
     }
+
+    /** True iff the GITLET_DEBUG environment variable is set, asking for
+     *  diagnostic messages. */
+    static final boolean DEBUG = System.getenv("GITLET_DEBUG") != null;
+
+    /** If DEBUG, print a message composed from MSG and ARGS as for
+     *  message() on the standard error. */
+    static void debug(String msg, Object... args) {
+        if (DEBUG) {
+            System.err.printf(msg, args);
+            System.err.println();
+        }
+    }
 }
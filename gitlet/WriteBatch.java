@@ -0,0 +1,169 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import static gitlet.Utils.*;
+
+/**
+ * The objects and refs written by one command, made durable together
+ * when it finishes.  An object is written at once to a temporary file
+ * beside its destination, where pending() finds it until commit(); a ref
+ * is only remembered.  commit() then
+ *
+ *     1. syncs every temporary object file,
+ *     2. renames each one onto its destination,
+ *     3. syncs each directory that received an object,
+ *     4. writes, syncs and renames each ref in the same way, and syncs
+ *        the directories that hold them,
+ *
+ * so that every file and directory is synced once per command, however
+ * many objects the command wrote, and a crash at any point leaves each
+ * file either as it was or complete, with no ref naming an object that
+ * did not reach the disk.  If DURABLE is false, commit() still renames
+ * in the same order but does not sync.
+ *
+ * @author KEVIN ZHU
+ */
+class WriteBatch {
+    /** The temporary files of the pending objects, by destination. */
+    private final Map<File, File> objects = new LinkedHashMap<>();
+    /** The new contents of the pending refs, by ref file. */
+    private final Map<File, byte[]> refs = new LinkedHashMap<>();
+
+    /** Returns a new, empty temporary file beside DEST, in which the
+     *  contents of DEST may be written before add(). */
+    File newTemp(File dest) {
+        File dir = dest.getAbsoluteFile().getParentFile();
+        dir.mkdirs();
+        try {
+            return Files.createTempFile(dir.toPath(), dest.getName() + ".", ".tmp").toFile();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Adds the object in TEMP, a file from newTemp(DEST), to be moved to
+     *  DEST on commit.  Objects are named by their contents, so if DEST is
+     *  already pending, TEMP is simply deleted. */
+    synchronized void add(File temp, File dest) {
+        if (objects.containsKey(dest)) {
+            temp.delete();
+        } else {
+            objects.put(dest, temp);
+        }
+    }
+
+    /** Adds the object file DEST, with the given CONTENTS. */
+    void write(File dest, byte[] contents) {
+        File temp = newTemp(dest);
+        writeContents(temp, contents);
+        add(temp, dest);
+    }
+
+    /** Returns the temporary file holding the pending object DEST, or null
+     *  if DEST is not pending. */
+    synchronized File pending(File dest) {
+        return objects.get(dest);
+    }
+
+    /** Sets the ref file REF to CONTENTS on commit, after all objects. */
+    synchronized void updateRef(File ref, String contents) {
+        refs.put(ref, contents.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /** Returns true iff nothing is pending. */
+    synchronized boolean isEmpty() {
+        return objects.isEmpty() && refs.isEmpty();
+    }
+
+    /** Moves the pending objects, and then the pending refs, into place,
+     *  syncing as described above iff DURABLE. */
+    synchronized void commit(boolean durable) {
+        if (isEmpty()) {
+            return;
+        }
+        int syncs = 0;
+        if (durable) {
+            for (File temp : objects.values()) {
+                sync(temp);
+                syncs += 1;
+            }
+        }
+        Set<File> dirs = new LinkedHashSet<>();
+        for (Map.Entry<File, File> object : objects.entrySet()) {
+            move(object.getValue(), object.getKey());
+            dirs.add(object.getKey().getAbsoluteFile().getParentFile());
+        }
+        if (durable) {
+            syncs += syncDirectories(dirs);
+        }
+        dirs.clear();
+        for (Map.Entry<File, byte[]> ref : refs.entrySet()) {
+            File temp = newTemp(ref.getKey());
+            writeContents(temp, ref.getValue());
+            if (durable) {
+                sync(temp);
+                syncs += 1;
+            }
+            move(temp, ref.getKey());
+            dirs.add(ref.getKey().getAbsoluteFile().getParentFile());
+        }
+        if (durable) {
+            syncs += syncDirectories(dirs);
+        }
+        debug("batch: %d objects, %d refs, %d syncs", objects.size(), refs.size(), syncs);
+        objects.clear();
+        refs.clear();
+    }
+
+    /** Renames TEMP to DEST atomically, replacing DEST. */
+    private static void move(File temp, File dest) {
+        try {
+            Files.move(temp.toPath(), dest.toPath(),
+                       StandardCopyOption.ATOMIC_MOVE,
+                       StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException excp) {
+            temp.delete();
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Forces the contents of FILE to the disk. */
+    static void sync(File file) {
+        Trace.Span span = Trace.start(Trace.SYNC);
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+            channel.force(true);
+            Trace.end(span, file, 0);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Forces the entries of each of DIRS to the disk, where the platform
+     *  allows it, and returns the number of directories synced. */
+    static int syncDirectories(Set<File> dirs) {
+        int result = 0;
+        for (File dir : dirs) {
+            Trace.Span span = Trace.start(Trace.SYNC);
+            try (FileChannel channel = FileChannel.open(dir.toPath(), StandardOpenOption.READ)) {
+                channel.force(true);
+                Trace.end(span, dir, 0);
+                result += 1;
+            } catch (IOException excp) {
+                /* Some platforms cannot open directories; renames there
+                 * are as durable as they can be made. */
+            }
+        }
+        return result;
+    }
+}